@@ -0,0 +1,80 @@
+package gfl;
+
+import gfl.db.DatabaseConfig;
+import org.openjdk.jmh.annotations.*;
+
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * CalculatorDB operations against local PostgreSQL. Benchmarks fail in setup when database is not available,
+ * other benchmarks of the run are not affected. Root searches and root inserts are measured with in-memory
+ * root index, which answers them without database, and without it
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 5, time = 1)
+@State(Scope.Benchmark)
+public class CalculatorDBBenchmark {
+
+    static final String EQUATION = "2*x+5=17";
+    static final double ROOT = 6;
+
+    @Param({"true", "false"})
+    String rootIndex;
+
+    CalculatorDB db;
+    int equationId;
+
+    @Setup
+    public void setup() {
+        System.setProperty("gfl.db.rootIndex.enabled", rootIndex);
+        DatabaseConfig config = DatabaseConfig.load();
+        try {
+            DriverManager.getConnection(config.getUrl(), config.getUser(), config.getPassword()).close();
+        } catch (SQLException e) {
+            throw new IllegalStateException("PostgreSQL is not available, skipping database benchmarks", e);
+        }
+        db = new CalculatorDB(config);
+        db.createEquation(EQUATION);
+        equationId = db.readEquationId(EQUATION);
+        db.createRoot(equationId, ROOT);
+    }
+
+    @TearDown
+    public void tearDown() {
+        db.close();
+    }
+
+    @Benchmark
+    public Integer readEquationId() {
+        return db.readEquationId(EQUATION);
+    }
+
+    @Benchmark
+    public String readEquation() {
+        return db.readEquation(equationId);
+    }
+
+    @Benchmark
+    public Integer[] readAllEquationIdMatchingRoot() {
+        return db.readAllEquationIdMatchingRoot(ROOT);
+    }
+
+    @Benchmark
+    public ArrayList<String> readAllEquationsMatchingRoot() {
+        return db.readAllEquationsMatchingRoot(ROOT, 100, 0);
+    }
+
+    /**
+     * Insert of existing root. With root index it is rejected by index and never queued, without index
+     * it goes through write-behind queue and is ignored by insert, time includes waiting for it to be written
+     */
+    @Benchmark
+    public void createRoot() {
+        db.createRootAsync(equationId, ROOT).join();
+    }
+}
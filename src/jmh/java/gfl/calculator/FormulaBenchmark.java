@@ -0,0 +1,108 @@
+package gfl.calculator;
+
+import gfl.exceptions.IncorrectFormulaException;
+import gfl.exceptions.LexicalException;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lexer, parser and evaluator on generated formulas of different size
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@State(Scope.Benchmark)
+public class FormulaBenchmark {
+
+    /**
+     * small: one term, medium: 20 terms, huge: 500 terms
+     */
+    @Param({"small", "medium", "huge"})
+    String size;
+
+    @Param({"TREE", "RPN", "BYTECODE", "TIERED"})
+    String engine;
+
+    String formula;
+    ArrayList<Token> tokens;
+    Calculator calculator;
+    FormulaTree formulaTree;
+    HashMap<String, Double> variables;
+    double[] values;
+
+    @Setup
+    public void setup() throws IncorrectFormulaException, LexicalException {
+        formula = generateFormula(switch (size) {
+            case "small" -> 1;
+            case "medium" -> 20;
+            default -> 500;
+        });
+        tokens = LexicalAnalyzer.tokenize(formula);
+        calculator = new Calculator(Calculator.Engine.valueOf(engine));
+        formulaTree = calculator.createOrReturnFormulaTree(formula);
+        variables = new HashMap<>();
+        variables.put("x", 0.75);
+        values = new double[]{0.75};
+    }
+
+    /**
+     * Generates formula of given number of terms, divisors are never zero for x = 0.75
+     *
+     * @param terms Number of terms
+     * @return Formula
+     */
+    static String generateFormula(int terms) {
+        Random random = new Random(terms);
+        StringBuilder formula = new StringBuilder();
+        for (int i = 0; i < terms; i++) {
+            if (i > 0) {
+                formula.append(random.nextBoolean() ? "+" : "-");
+            }
+            switch (random.nextInt(4)) {
+                case 0 -> formula.append(random.nextInt(100)).append("*x");
+                case 1 -> formula.append("(x-").append(random.nextInt(10)).append(")/(x+").append(random.nextInt(10) + 1).append(')');
+                case 2 -> formula.append("-x*(x+").append(random.nextInt(100)).append('.').append(random.nextInt(100)).append(')');
+                default -> formula.append("(x*x-").append(random.nextInt(50)).append(")*(x*x-").append(random.nextInt(50)).append(')');
+            }
+        }
+        return formula.toString();
+    }
+
+    @Benchmark
+    public ArrayList<Token> tokenize() throws IncorrectFormulaException, LexicalException {
+        return LexicalAnalyzer.tokenizeSinglePass(formula);
+    }
+
+    @Benchmark
+    public ArrayList<Token> tokenizeWithRegex() throws IncorrectFormulaException, LexicalException {
+        return LexicalAnalyzer.tokenizeWithRegex(formula);
+    }
+
+    @Benchmark
+    public FormulaTree createFormulaTree() {
+        return FormulaTree.createFormulaTree(tokens);
+    }
+
+    /**
+     * Cached formula looked up by string and evaluated with map of variables
+     */
+    @Benchmark
+    public double calculate() throws IncorrectFormulaException, LexicalException {
+        return calculator.calculate(formula, variables);
+    }
+
+    @Benchmark
+    public double calculateFormulaThree() throws IncorrectFormulaException, LexicalException {
+        return calculator.calculateFormulaThree(formulaTree, variables);
+    }
+
+    @Benchmark
+    public double calculateFormulaThreeSlots() throws IncorrectFormulaException {
+        return calculator.calculateFormulaThree(formulaTree, values);
+    }
+}
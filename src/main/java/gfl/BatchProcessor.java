@@ -0,0 +1,329 @@
+package gfl;
+
+import gfl.calculator.Bindings;
+import gfl.calculator.Calculator;
+import gfl.calculator.FormulaTree;
+import gfl.calculator.RootFinder;
+import gfl.exceptions.IncorrectFormulaException;
+import gfl.exceptions.LexicalException;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Locale;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Headless mode of MathAssistant, verifies and solves equations streamed line by line.
+ * Every line is "equation" or "equation;root;root...". Equations with candidate roots are checked at every root,
+ * equations without them are solved on [{@link MathAssistant#ROOT_SEARCH_FROM}, {@link MathAssistant#ROOT_SEARCH_TO}].
+ * Lines are processed on a pool of workers, at most a fixed number of lines is in flight,
+ * so memory does not depend on size of input. Results are written in order of input as soon as they are ready
+ */
+public class BatchProcessor {
+
+    public enum Format {
+        CSV,
+        /**
+         * One JSON object per line
+         */
+        JSON
+    }
+
+    static final String ROOT_SEPARATOR = ";";
+
+    // Lines in flight per worker
+    static final int WINDOW_PER_WORKER = 4;
+
+    private final Calculator calculator;
+    private final RootFinder rootFinder;
+    private final Format format;
+    private final int workers;
+
+    // Results are persisted if set
+    private final EquationStorage db;
+
+    private final LongAdder lineCount = new LongAdder();
+    private final LongAdder errorCount = new LongAdder();
+    private final LongAdder checkedRootCount = new LongAdder();
+    private final LongAdder correctRootCount = new LongAdder();
+    private final LongAdder foundRootCount = new LongAdder();
+
+    /**
+     * @param format  Format of output
+     * @param workers Number of worker threads
+     * @param db      Database results are saved to, or null
+     */
+    public BatchProcessor(Format format, int workers, EquationStorage db) {
+        if (workers < 1) {
+            throw new IllegalArgumentException("Number of workers must be positive");
+        }
+        this.calculator = new Calculator();
+        this.rootFinder = new RootFinder(calculator).setFunctionTolerance(MathAssistant.accuracy);
+        this.format = format;
+        this.workers = workers;
+        this.db = db;
+    }
+
+    /**
+     * Processes every line of input and writes one result per line
+     *
+     * @param input  Equations
+     * @param output Results
+     * @throws IOException if input can not be read or output can not be written
+     */
+    public void process(Reader input, Writer output) throws IOException {
+        BufferedReader reader = input instanceof BufferedReader ? (BufferedReader) input : new BufferedReader(input);
+        ExecutorService executor = Executors.newFixedThreadPool(workers, runnable -> {
+            Thread thread = new Thread(runnable, "batch-worker");
+            thread.setDaemon(true);
+            return thread;
+        });
+        ArrayDeque<Future<String>> window = new ArrayDeque<>();
+        int windowSize = workers * WINDOW_PER_WORKER;
+        try {
+            if (format == Format.CSV) {
+                output.write("line,equation,status,roots,rejected,message\n");
+            }
+            String line;
+            long lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                if (line.isBlank()) {
+                    continue;
+                }
+                if (window.size() == windowSize) {
+                    output.write(take(window.poll()));
+                }
+                long number = lineNumber;
+                String text = line;
+                window.add(executor.submit(() -> processLine(number, text)));
+            }
+            while (!window.isEmpty()) {
+                output.write(take(window.poll()));
+            }
+            output.flush();
+        } finally {
+            executor.shutdownNow();
+        }
+        if (db != null) {
+            db.flushRoots();
+        }
+    }
+
+    private String take(Future<String> result) throws IOException {
+        try {
+            return result.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Batch was interrupted");
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        }
+    }
+
+    /**
+     * @return Formatted result of one line
+     */
+    String processLine(long lineNumber, String line) {
+        lineCount.increment();
+        String[] parts = line.split(ROOT_SEPARATOR);
+        String equation = parts[0].trim();
+        try {
+            String[] leftAndRight = MathAssistant.splitFormulaIntoLeftAndRightParts(equation);
+            FormulaTree left = calculator.createOrReturnFormulaTree(leftAndRight[0]);
+            FormulaTree right = calculator.createOrReturnFormulaTree(leftAndRight[1]);
+
+            ArrayList<Double> roots = new ArrayList<>();
+            ArrayList<Double> rejected = new ArrayList<>();
+            if (parts.length > 1) {
+                verify(left, right, parts, roots, rejected);
+            } else {
+                for (double root : rootFinder.findRoots(left, right, "x", MathAssistant.ROOT_SEARCH_FROM, MathAssistant.ROOT_SEARCH_TO)) {
+                    roots.add(root);
+                }
+                foundRootCount.add(roots.size());
+            }
+            persist(equation, roots);
+            return format(lineNumber, equation, "ok", roots, rejected, "");
+        } catch (IncorrectFormulaException | LexicalException | ArithmeticException | NumberFormatException e) {
+            errorCount.increment();
+            return format(lineNumber, equation, "error", new ArrayList<>(), new ArrayList<>(), oneLine(e.getMessage()));
+        }
+    }
+
+    private void verify(FormulaTree left, FormulaTree right, String[] parts, ArrayList<Double> roots, ArrayList<Double> rejected) throws IncorrectFormulaException {
+        Bindings leftBindings = left.newBindings();
+        Bindings rightBindings = right.newBindings();
+        int leftSlot = left.getVariableSlot("x");
+        int rightSlot = right.getVariableSlot("x");
+        for (int i = 1; i < parts.length; i++) {
+            double candidate = Double.parseDouble(parts[i].trim());
+            if (leftSlot != -1) {
+                leftBindings.set(leftSlot, candidate);
+            }
+            if (rightSlot != -1) {
+                rightBindings.set(rightSlot, candidate);
+            }
+            checkedRootCount.increment();
+            boolean correct;
+            try {
+                correct = Math.abs(calculator.calculateFormulaThree(left, leftBindings)
+                        - calculator.calculateFormulaThree(right, rightBindings)) < MathAssistant.accuracy;
+            } catch (ArithmeticException e) {
+                correct = false;
+            }
+            if (correct) {
+                correctRootCount.increment();
+                roots.add(candidate);
+            } else {
+                rejected.add(candidate);
+            }
+        }
+    }
+
+    private void persist(String equation, ArrayList<Double> roots) {
+        if (db == null) {
+            return;
+        }
+        db.createEquation(equation);
+        if (roots.isEmpty()) {
+            return;
+        }
+        Integer equationId = db.readEquationId(equation);
+        if (equationId != null) {
+            // Roots are queued and written by RootWriter in batches
+            for (double root : roots) {
+                db.createRoot(equationId, root);
+            }
+        }
+    }
+
+    private String format(long lineNumber, String equation, String status, ArrayList<Double> roots, ArrayList<Double> rejected, String message) {
+        if (format == Format.JSON) {
+            return "{\"line\":" + lineNumber
+                    + ",\"equation\":" + jsonString(equation)
+                    + ",\"status\":\"" + status + "\""
+                    + ",\"roots\":" + jsonArray(roots)
+                    + ",\"rejected\":" + jsonArray(rejected)
+                    + (message.isEmpty() ? "" : ",\"message\":" + jsonString(message))
+                    + "}\n";
+        }
+        return lineNumber + "," + csvField(equation) + "," + status + "," + join(roots, " ") + "," + join(rejected, " ") + "," + csvField(message) + "\n";
+    }
+
+    /**
+     * Lexical errors are reported one per line, every result is kept on one line of output
+     */
+    private static String oneLine(String message) {
+        return message == null ? "" : message.strip().replaceAll("\\s*\\R\\s*", "; ");
+    }
+
+    private static String join(ArrayList<Double> values, String separator) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < values.size(); i++) {
+            if (i > 0) {
+                builder.append(separator);
+            }
+            double value = values.get(i);
+            // JSON has no NaN and Infinity
+            builder.append(Double.isFinite(value) ? Double.toString(value) : "null");
+        }
+        return builder.toString();
+    }
+
+    private static String jsonArray(ArrayList<Double> values) {
+        return "[" + join(values, ",") + "]";
+    }
+
+    static String jsonString(String value) {
+        StringBuilder builder = new StringBuilder("\"");
+        for (char c : value.toCharArray()) {
+            switch (c) {
+                case '"' -> builder.append("\\\"");
+                case '\\' -> builder.append("\\\\");
+                case '\n' -> builder.append("\\n");
+                case '\r' -> builder.append("\\r");
+                case '\t' -> builder.append("\\t");
+                default -> {
+                    if (c < 0x20) {
+                        builder.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        builder.append(c);
+                    }
+                }
+            }
+        }
+        return builder.append('"').toString();
+    }
+
+    static String csvField(String value) {
+        if (value.contains(",") || value.contains("\"") || value.contains("\n")) {
+            return "\"" + value.replace("\"", "\"\"") + "\"";
+        }
+        return value;
+    }
+
+    public long getLineCount() {
+        return lineCount.sum();
+    }
+
+    public long getErrorCount() {
+        return errorCount.sum();
+    }
+
+    public long getCheckedRootCount() {
+        return checkedRootCount.sum();
+    }
+
+    public long getCorrectRootCount() {
+        return correctRootCount.sum();
+    }
+
+    public long getFoundRootCount() {
+        return foundRootCount.sum();
+    }
+
+    /**
+     * Runs batch mode with arguments following "--batch":
+     * [file or "-" for stdin] [--format csv|json] [--threads n] [--db]
+     *
+     * @param args Arguments after "--batch"
+     */
+    public static void main(String[] args) throws IOException {
+        String file = "-";
+        Format format = Format.CSV;
+        int threads = Runtime.getRuntime().availableProcessors();
+        boolean persist = false;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--format" -> format = Format.valueOf(args[++i].toUpperCase(Locale.ROOT));
+                case "--threads" -> threads = Integer.parseInt(args[++i]);
+                case "--db" -> persist = true;
+                default -> file = args[i];
+            }
+        }
+
+        EquationStorage db = persist ? EquationStorage.open() : null;
+        BatchProcessor processor = new BatchProcessor(format, threads, db);
+        MathAssistant.persistFormulas(processor.calculator);
+        long start = System.nanoTime();
+        try (Reader input = file.equals("-")
+                ? new InputStreamReader(System.in, StandardCharsets.UTF_8)
+                : new FileReader(file, StandardCharsets.UTF_8);
+             Writer output = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8))) {
+            processor.process(input, output);
+        } finally {
+            if (db != null) {
+                db.close();
+            }
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.err.printf(Locale.ROOT, "lines: %d, errors: %d, roots checked: %d, correct: %d, found: %d, %.3f s, %.1f lines/s%n",
+                processor.getLineCount(), processor.getErrorCount(), processor.getCheckedRootCount(),
+                processor.getCorrectRootCount(), processor.getFoundRootCount(),
+                seconds, processor.getLineCount() / Math.max(seconds, 1e-9));
+    }
+}
@@ -1,32 +1,117 @@
 package gfl;
 
+import gfl.db.ConnectionPool;
+import gfl.db.DatabaseConfig;
+import gfl.db.PooledConnection;
+import gfl.db.RootIndex;
+import gfl.db.RootWriter;
+import gfl.metrics.Metrics;
+import gfl.metrics.Timer;
+
 import java.sql.*;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
 
-public class CalculatorDB {
-    final static String url = "jdbc:postgresql://localhost:5432/";
-    final static String user = "postgres";
-    final static String password = "admin";
-    final static String databaseName = "calculator_db";
+public class CalculatorDB implements EquationStorage {
     final static String equationsTableName = "equations";
     final static String rootsTableName = "roots";
 
+    final static String insertEquationQuery = "INSERT INTO " + equationsTableName + "(equation) VALUES (?)";
+    final static String rootsEquationValueIndexName = "roots_equation_id_value_idx";
+
+    // Root is not inserted if equation already has a root within tolerance of it
+    final static String insertRootQuery = "INSERT INTO " + rootsTableName + "(value, equation_id) SELECT ?, ?" +
+            " WHERE NOT EXISTS (SELECT 1 FROM " + rootsTableName + " WHERE equation_id = ? AND value BETWEEN ? AND ?)" +
+            " ON CONFLICT DO NOTHING";
+    final static String selectEquationQuery = "SELECT equation FROM " + equationsTableName + " WHERE id = ?";
+    final static String selectEquationIdQuery = "SELECT id FROM " + equationsTableName + " WHERE equation = ?";
+    final static String selectEquationIdsByRootQuery = "SELECT equation_id FROM " + rootsTableName + " WHERE value = ?";
+    // Range scan over UNIQUE (value, equation_id) index, LIMIT NULL means no limit in PostgreSQL
+    final static String selectEquationsByRootRangeQuery = "SELECT e.equation FROM " + equationsTableName + " e" +
+            " JOIN (SELECT DISTINCT equation_id FROM " + rootsTableName + " WHERE value BETWEEN ? AND ?) r" +
+            " ON r.equation_id = e.id ORDER BY e.id LIMIT ? OFFSET ?";
+    final static String selectEquationsByIdsQuery = "SELECT equation FROM " + equationsTableName + " WHERE id = ANY(?) ORDER BY id";
+    final static String selectAllRootsQuery = "SELECT value, equation_id FROM " + rootsTableName +
+            " WHERE value <> 'NaN' ORDER BY value, equation_id";
+
+    // Timers of public operations, methods delegating to them are measured by them
+    static final Timer CREATE_EQUATION_TIMER = Metrics.timer("db.createEquation");
+    static final Timer CREATE_ROOT_TIMER = Metrics.timer("db.createRoot");
+    static final Timer FLUSH_ROOTS_TIMER = Metrics.timer("db.flushRoots");
+    static final Timer READ_EQUATION_TIMER = Metrics.timer("db.readEquation");
+    static final Timer READ_EQUATION_ID_TIMER = Metrics.timer("db.readEquationId");
+    static final Timer READ_EQUATION_IDS_BY_ROOT_TIMER = Metrics.timer("db.readAllEquationIdMatchingRoot");
+    static final Timer READ_EQUATIONS_BY_ROOT_RANGE_TIMER = Metrics.timer("db.readEquationsMatchingRootRange");
+
+    // Number of ids sent in one query when equations are read by ids from root index
+    final static int EQUATIONS_BY_IDS_CHUNK = 1000;
+
+    private final DatabaseConfig config;
+    private final ConnectionPool pool;
+    private final RootWriter rootWriter;
+    // Copy of roots table, null if disabled by config or if roots could not be loaded
+    private final RootIndex rootIndex;
+
+    /**
+     * Connects with settings from {@link DatabaseConfig#load()}
+     */
     CalculatorDB() {
+        this(DatabaseConfig.load());
+    }
+
+    CalculatorDB(DatabaseConfig config) {
+        this.config = config;
         setupDB();
+        this.pool = new ConnectionPool(config.getDatabaseUrl(), config);
+        this.rootWriter = new RootWriter(pool, insertRootQuery, (preparedStatement, equationId, value) -> {
+            double tolerance = toleranceOf(value);
+            preparedStatement.setDouble(1, value);
+            preparedStatement.setInt(2, equationId);
+            preparedStatement.setInt(3, equationId);
+            preparedStatement.setDouble(4, value - tolerance);
+            preparedStatement.setDouble(5, value + tolerance);
+        }, config);
+        this.rootIndex = config.isRootIndexEnabled() ? loadRootIndex() : null;
     }
 
     public void setupDB() {
         createDBIfNotExists();
         createEquationTableIfNotExists();
         createRootsTableIfNotExists();
+        migrateRootsTable();
+    }
+
+    /**
+     * @return Pool of connections to calculator database
+     */
+    public ConnectionPool getPool() {
+        return pool;
+    }
+
+    /**
+     * @return In-memory index of roots or null if it is disabled or was not loaded
+     */
+    public RootIndex getRootIndex() {
+        return rootIndex;
+    }
+
+    /**
+     * Writes queued roots and closes pooled connections
+     */
+    @Override
+    public void close() {
+        rootWriter.close();
+        pool.close();
     }
 
     private Connection connectToPostgres() throws SQLException {
-        return DriverManager.getConnection(url, user, password);
+        return DriverManager.getConnection(config.getUrl(), config.getUser(), config.getPassword());
     }
 
     private Connection connectToPostgresDatabase() throws SQLException {
-        return DriverManager.getConnection(url + databaseName, user, password);
+        return DriverManager.getConnection(config.getDatabaseUrl(), config.getUser(), config.getPassword());
     }
 
     private void createDBIfNotExists() {
@@ -34,11 +119,11 @@ public class CalculatorDB {
         try (Connection connection = connectToPostgres()) {
             String checkDatabaseQuery = "SELECT datname FROM pg_database WHERE datname = ?";
             try (PreparedStatement getDBpreparedStatement = connection.prepareStatement(checkDatabaseQuery)) {
-                getDBpreparedStatement.setString(1, databaseName);
+                getDBpreparedStatement.setString(1, config.getDatabaseName());
 
                 if (!getDBpreparedStatement.executeQuery().next()) {
                     // Database does not exist, so create it
-                    String createDatabaseQuery = "CREATE DATABASE " + databaseName;
+                    String createDatabaseQuery = "CREATE DATABASE " + config.getDatabaseName();
                     try (PreparedStatement createDBPreparedStatement = connection.prepareStatement(createDatabaseQuery)) {
                         createDBPreparedStatement.executeUpdate();
                         System.out.println("Database created successfully.");
@@ -86,81 +171,165 @@ public class CalculatorDB {
     }
 
 
-    public void createEquation(String equation) {
+    /**
+     * Brings roots table of existing databases up to date, every step can be run again
+     */
+    private void migrateRootsTable() {
         try (Connection connection = connectToPostgresDatabase()) {
-            String sql = "INSERT INTO " + equationsTableName + "(equation) VALUES (?)";
-            try (PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
-                preparedStatement.setString(1, equation);
-                preparedStatement.executeUpdate();
+            try (Statement statement = connection.createStatement()) {
+                // UNIQUE (value, equation_id) already serves range scans by value,
+                // this index serves the near-duplicate check of every insert
+                statement.executeUpdate("CREATE INDEX IF NOT EXISTS " + rootsEquationValueIndexName +
+                        " ON " + rootsTableName + " (equation_id, value)");
             }
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * @param value Root
+     * @return Half width of interval of values treated as equal to root
+     */
+    public double toleranceOf(double value) {
+        return config.getRootTolerance() * Math.max(1., Math.abs(value));
+    }
+
+    @Override
+    public void createEquation(String equation) {
+        long start = Metrics.start();
+        try (PooledConnection connection = pool.getConnection()) {
+            // Statements are cached by connection, so they are not closed here
+            PreparedStatement preparedStatement = connection.prepareStatement(insertEquationQuery);
+            preparedStatement.setString(1, equation);
+            preparedStatement.executeUpdate();
 
         } catch (SQLException e) {
+            CREATE_EQUATION_TIMER.error(e);
             // e.printStackTrace();
+        } finally {
+            CREATE_EQUATION_TIMER.stop(start);
         }
     }
 
+    /**
+     * Queues root for batched insert and returns without waiting for database, blocks only while queue is full.
+     * Roots within tolerance of root already stored for equation are ignored
+     *
+     * @param equationId Id of equation
+     * @param value      Root
+     */
+    @Override
     public void createRoot(int equationId, double value) {
-        try (Connection connection = connectToPostgresDatabase()) {
-            String sql = "INSERT INTO " + rootsTableName + "(value, equation_id) VALUES (?, ?)";
-            try (PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
-                preparedStatement.setDouble(1, value);
-                preparedStatement.setInt(2, equationId);
-                preparedStatement.executeUpdate();
+        createRootAsync(equationId, value);
+    }
+
+    /**
+     * Queues root for batched insert
+     *
+     * @param equationId Id of equation
+     * @param value      Root
+     * @return Future completed when root is written
+     */
+    public CompletableFuture<Void> createRootAsync(int equationId, double value) {
+        long start = Metrics.start();
+        try {
+            // Index holds every stored root, a root it rejects would be ignored by database too
+            if (rootIndex != null && !rootIndex.add(equationId, value, toleranceOf(value))) {
+                return CompletableFuture.completedFuture(null);
             }
+            CompletableFuture<Void> written = rootWriter.submit(equationId, value);
+            written.whenComplete((ignored, e) -> {
+                if (e != null) {
+                    // Insert fails after this method returned, so error is counted when it is known
+                    CREATE_ROOT_TIMER.error(e);
+                    // Root that was not written is taken back, so index keeps matching database
+                    if (rootIndex != null) {
+                        rootIndex.remove(equationId, value);
+                    }
+                }
+            });
+            return written;
+        } finally {
+            CREATE_ROOT_TIMER.stop(start);
+        }
+    }
 
-        } catch (SQLException e) {
-            // e.printStackTrace();
+    /**
+     * Waits until queued roots are written
+     */
+    @Override
+    public void flushRoots() {
+        long start = Metrics.start();
+        try {
+            rootWriter.flush();
+        } catch (RuntimeException e) {
+            FLUSH_ROOTS_TIMER.error(e);
+            throw e;
+        } finally {
+            FLUSH_ROOTS_TIMER.stop(start);
         }
     }
 
+    @Override
     public String readEquation(int equationId) {
+        long start = Metrics.start();
         String equation = null;
-        try (Connection connection = connectToPostgresDatabase()) {
+        try (PooledConnection connection = pool.getConnection()) {
 
-            String sql = "SELECT equation FROM " + equationsTableName + " WHERE id = ?";
-            try (PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
-                preparedStatement.setInt(1, equationId);
-                try (ResultSet resultSet = preparedStatement.executeQuery()) {
-                    if (resultSet.next()) {
-                        equation = resultSet.getString("equation");
-                    }
+            PreparedStatement preparedStatement = connection.prepareStatement(selectEquationQuery);
+            preparedStatement.setInt(1, equationId);
+            try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                if (resultSet.next()) {
+                    equation = resultSet.getString("equation");
                 }
             }
         } catch (SQLException e) {
+            READ_EQUATION_TIMER.error(e);
             e.printStackTrace();
+        } finally {
+            READ_EQUATION_TIMER.stop(start);
         }
         return equation;
     }
 
+    @Override
     public Integer readEquationId(String equation) {
+        long start = Metrics.start();
         Integer equationId = null;
-        try (Connection connection = connectToPostgresDatabase()) {
+        try (PooledConnection connection = pool.getConnection()) {
 
-            String sql = "SELECT id FROM " + equationsTableName + " WHERE equation = ?";
-            try (PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
-                preparedStatement.setString(1, equation);
-                try (ResultSet resultSet = preparedStatement.executeQuery()) {
-                    if (resultSet.next()) {
-                        equationId = resultSet.getInt("id");
-                    }
+            PreparedStatement preparedStatement = connection.prepareStatement(selectEquationIdQuery);
+            preparedStatement.setString(1, equation);
+            try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                if (resultSet.next()) {
+                    equationId = resultSet.getInt("id");
                 }
             }
         } catch (SQLException e) {
+            READ_EQUATION_ID_TIMER.error(e);
             // e.printStackTrace();
+        } finally {
+            READ_EQUATION_ID_TIMER.stop(start);
         }
         return equationId;
     }
 
+    @Override
     public Integer[] readAllEquationIdMatchingRoot(Double root) {
+        long start = Metrics.start();
+        try {
+            if (rootIndex != null) {
+                return Arrays.stream(rootIndex.findExact(root)).boxed().toArray(Integer[]::new);
+            }
 
-        ArrayList<Integer> equationIdArrayList = new ArrayList<>();
-
-        String sql;
+            ArrayList<Integer> equationIdArrayList = new ArrayList<>();
+            // Roots created before this search must be visible to it
+            rootWriter.flush();
 
-        try (Connection connection = connectToPostgresDatabase()) {
-            sql = "SELECT equation_id FROM " + rootsTableName + " WHERE value = ?";
+            try (PooledConnection connection = pool.getConnection()) {
 
-            try (PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
+                PreparedStatement preparedStatement = connection.prepareStatement(selectEquationIdsByRootQuery);
                 preparedStatement.setDouble(1, root);
                 try (ResultSet resultSet = preparedStatement.executeQuery()) {
                     while (resultSet.next()) {
@@ -168,11 +337,196 @@ public class CalculatorDB {
                     }
 
                 }
+            } catch (SQLException e) {
+                READ_EQUATION_IDS_BY_ROOT_TIMER.error(e);
+                // e.printStackTrace();
+            }
+            return equationIdArrayList.toArray(new Integer[0]);
+        } finally {
+            READ_EQUATION_IDS_BY_ROOT_TIMER.stop(start);
+        }
+    }
+
+    /**
+     * Reads equations having root within tolerance of given one, see {@link #toleranceOf(double)}
+     *
+     * @param root     Root to search
+     * @param limit    Maximum number of equations, 0 or less for no limit
+     * @param offset   Number of matching equations to skip, in order of equation id
+     * @param consumer Receives equations while cursor is open, must not call this CalculatorDB
+     * @return Number of equations passed to consumer
+     */
+    public int readEquationsMatchingRoot(double root, int limit, int offset, Consumer<String> consumer) {
+        double tolerance = toleranceOf(root);
+        return readEquationsMatchingRootRange(root - tolerance, root + tolerance, limit, offset, consumer);
+    }
+
+    /**
+     * Reads equations having root in [from, to] with one query, rows are streamed through a cursor
+     * of {@link DatabaseConfig#getFetchSize()} rows, so memory does not depend on number of matches
+     *
+     * @param from     Lower bound of root, inclusive
+     * @param to       Upper bound of root, inclusive
+     * @param limit    Maximum number of equations, 0 or less for no limit
+     * @param offset   Number of matching equations to skip, in order of equation id
+     * @param consumer Receives equations while cursor is open, must not call this CalculatorDB
+     * @return Number of equations passed to consumer
+     */
+    public int readEquationsMatchingRootRange(double from, double to, int limit, int offset, Consumer<String> consumer) {
+        long start = Metrics.start();
+        int[] count = new int[1];
+        Consumer<String> counter = equation -> {
+            consumer.accept(equation);
+            count[0]++;
+        };
+        try {
+            if (rootIndex != null) {
+                readEquationsByIds(page(rootIndex.findRange(from, to), limit, offset), counter);
+            } else {
+                rootWriter.flush();
+                streamQuery(selectEquationsByRootRangeQuery, preparedStatement -> {
+                    preparedStatement.setDouble(1, from);
+                    preparedStatement.setDouble(2, to);
+                    if (limit > 0) {
+                        preparedStatement.setInt(3, limit);
+                    } else {
+                        preparedStatement.setNull(3, Types.INTEGER);
+                    }
+                    preparedStatement.setInt(4, Math.max(offset, 0));
+                }, resultSet -> counter.accept(resultSet.getString(1)));
             }
         } catch (SQLException e) {
-            // e.printStackTrace();
+            READ_EQUATIONS_BY_ROOT_RANGE_TIMER.error(e);
+            e.printStackTrace();
+        } finally {
+            READ_EQUATIONS_BY_ROOT_RANGE_TIMER.stop(start);
         }
-        return equationIdArrayList.toArray(new Integer[0]);
+        return count[0];
+    }
+
+    /**
+     * Reads equations by ids, a query per chunk of ids
+     *
+     * @param equationIds Ids of equations, ascending
+     * @param consumer    Receives equations in order of ids
+     * @throws SQLException Error of a query, equations of earlier chunks are passed to consumer already
+     */
+    private void readEquationsByIds(int[] equationIds, Consumer<String> consumer) throws SQLException {
+        try (PooledConnection connection = pool.getConnection()) {
+            PreparedStatement preparedStatement = connection.prepareStatement(selectEquationsByIdsQuery);
+            for (int chunkStart = 0; chunkStart < equationIds.length; chunkStart += EQUATIONS_BY_IDS_CHUNK) {
+                int chunkEnd = Math.min(equationIds.length, chunkStart + EQUATIONS_BY_IDS_CHUNK);
+                Integer[] chunk = Arrays.stream(equationIds, chunkStart, chunkEnd).boxed().toArray(Integer[]::new);
+                preparedStatement.setArray(1, connection.getConnection().createArrayOf("integer", chunk));
+                try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                    while (resultSet.next()) {
+                        consumer.accept(resultSet.getString(1));
+                    }
+                }
+            }
+        }
+    }
+
+    private static int[] page(int[] equationIds, int limit, int offset) {
+        int start = Math.min(Math.max(offset, 0), equationIds.length);
+        int end = limit > 0 ? (int) Math.min((long) start + limit, equationIds.length) : equationIds.length;
+        return Arrays.copyOfRange(equationIds, start, end);
+    }
+
+    /**
+     * Fills root index with all roots of database
+     *
+     * @return Index or null if roots could not be read, then searches go to database
+     */
+    private RootIndex loadRootIndex() {
+        double[][] values = {new double[1024]};
+        int[][] equationIds = {new int[1024]};
+        int[] size = new int[1];
+        try {
+            streamQuery(selectAllRootsQuery, preparedStatement -> {
+            }, resultSet -> {
+                if (size[0] == values[0].length) {
+                    values[0] = Arrays.copyOf(values[0], size[0] * 2);
+                    equationIds[0] = Arrays.copyOf(equationIds[0], size[0] * 2);
+                }
+                values[0][size[0]] = resultSet.getDouble(1);
+                equationIds[0][size[0]] = resultSet.getInt(2);
+                size[0]++;
+            });
+        } catch (SQLException e) {
+            e.printStackTrace();
+            return null;
+        }
+        RootIndex loaded = new RootIndex();
+        loaded.load(values[0], equationIds[0], size[0]);
+        return loaded;
+    }
+
+    @FunctionalInterface
+    private interface ParameterSetter {
+        void set(PreparedStatement preparedStatement) throws SQLException;
+    }
+
+    @FunctionalInterface
+    private interface RowReader {
+        void read(ResultSet resultSet) throws SQLException;
+    }
+
+    /**
+     * Runs query through a cursor of {@link DatabaseConfig#getFetchSize()} rows
+     */
+    private void streamQuery(String sql, ParameterSetter parameterSetter, RowReader rowReader) throws SQLException {
+        try (PooledConnection pooledConnection = pool.getConnection()) {
+            Connection connection = pooledConnection.getConnection();
+            // PostgreSQL uses cursor for fetch size only inside transaction
+            connection.setAutoCommit(false);
+            try {
+                PreparedStatement preparedStatement = pooledConnection.prepareStatement(sql);
+                preparedStatement.setFetchSize(config.getFetchSize());
+                parameterSetter.set(preparedStatement);
+                try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                    while (resultSet.next()) {
+                        rowReader.read(resultSet);
+                    }
+                }
+                connection.commit();
+            } catch (SQLException | RuntimeException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
+            }
+        }
+    }
+
+    /**
+     * Reads page of equations having root within tolerance of given one
+     *
+     * @param root   Root to search
+     * @param limit  Maximum number of equations, 0 or less for no limit
+     * @param offset Number of matching equations to skip, in order of equation id
+     * @return Equations
+     */
+    @Override
+    public ArrayList<String> readAllEquationsMatchingRoot(double root, int limit, int offset) {
+        ArrayList<String> equations = new ArrayList<>();
+        readEquationsMatchingRoot(root, limit, offset, equations::add);
+        return equations;
+    }
+
+    /**
+     * Reads page of equations having root in [from, to]
+     *
+     * @param from   Lower bound of root, inclusive
+     * @param to     Upper bound of root, inclusive
+     * @param limit  Maximum number of equations, 0 or less for no limit
+     * @param offset Number of matching equations to skip, in order of equation id
+     * @return Equations
+     */
+    public ArrayList<String> readAllEquationsMatchingRootRange(double from, double to, int limit, int offset) {
+        ArrayList<String> equations = new ArrayList<>();
+        readEquationsMatchingRootRange(from, to, limit, offset, equations::add);
+        return equations;
     }
 
 }
@@ -0,0 +1,275 @@
+package gfl;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import gfl.calculator.Calculator;
+import gfl.exceptions.IncorrectFormulaException;
+import gfl.exceptions.LexicalException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * HTTP service mode of MathAssistant, all endpoints take parameters from query string or form body
+ * and answer with JSON. "+" in formulas must be sent as %2B.
+ * <ul>
+ *     <li>/calculate?formula=2*x%2B1&amp;x=3 - value of formula, other parameters are variables</li>
+ *     <li>/verify?equation=2*x=4&amp;x=2 - whether x is a root of equation, equation and correct root are saved</li>
+ *     <li>/search?root=2&amp;limit=100&amp;offset=0 - saved equations having root</li>
+ * </ul>
+ * Requests are handled by a fixed number of threads, requests waiting for a thread are kept in a bounded queue,
+ * when it is full server stops accepting connections until a thread is free
+ */
+public class CalculatorServer implements AutoCloseable {
+
+    static final int DEFAULT_PORT = 8080;
+    static final int DEFAULT_QUEUE_CAPACITY = 1000;
+    static final int DEFAULT_SEARCH_LIMIT = 1000;
+
+    private final Calculator calculator;
+    private final EquationStorage storage;
+    private final HttpServer server;
+    private final ThreadPoolExecutor executor;
+
+    /**
+     * @param port          Port, 0 for any free port
+     * @param threads       Maximum number of requests handled at once
+     * @param queueCapacity Maximum number of requests waiting for a thread
+     * @param storage       Storage of equations and roots
+     * @throws IOException if port can not be bound
+     */
+    public CalculatorServer(int port, int threads, int queueCapacity, EquationStorage storage) throws IOException {
+        this.calculator = new Calculator();
+        this.storage = storage;
+
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                runnable -> new Thread(runnable, "calculator-server-" + threadNumber.incrementAndGet()),
+                (runnable, pool) -> {
+                    // Full queue blocks dispatcher thread, so new connections wait in socket backlog
+                    try {
+                        pool.getQueue().put(runnable);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new RejectedExecutionException(e);
+                    }
+                });
+
+        this.server = HttpServer.create(new InetSocketAddress(port), 0);
+        server.setExecutor(executor);
+        server.createContext("/calculate", handler(this::calculate));
+        server.createContext("/verify", handler(this::verify));
+        server.createContext("/search", handler(this::search));
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    /**
+     * @return Port server listens on
+     */
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Stops accepting requests, waits for running ones and closes storage
+     */
+    @Override
+    public void close() {
+        server.stop(1);
+        executor.shutdown();
+        try {
+            executor.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        storage.close();
+    }
+
+    private interface Endpoint {
+        /**
+         * @return JSON body of response
+         */
+        String handle(HashMap<String, String> parameters) throws IncorrectFormulaException, LexicalException;
+    }
+
+    private HttpHandler handler(Endpoint endpoint) {
+        return exchange -> {
+            try (exchange) {
+                String method = exchange.getRequestMethod();
+                if (!method.equals("GET") && !method.equals("POST")) {
+                    exchange.getResponseHeaders().set("Allow", "GET, POST");
+                    send(exchange, 405, error("Method " + method + " is not allowed"));
+                    return;
+                }
+                String body;
+                int status = 200;
+                try {
+                    body = endpoint.handle(parameters(exchange));
+                } catch (IncorrectFormulaException | LexicalException | ArithmeticException | IllegalArgumentException e) {
+                    status = 400;
+                    body = error(e.getMessage());
+                } catch (RuntimeException e) {
+                    status = 500;
+                    body = error(e.toString());
+                }
+                send(exchange, status, body);
+            }
+        };
+    }
+
+    private String calculate(HashMap<String, String> parameters) throws IncorrectFormulaException, LexicalException {
+        String formula = required(parameters, "formula");
+        HashMap<String, Double> variables = new HashMap<>();
+        for (var parameter : parameters.entrySet()) {
+            if (!parameter.getKey().equals("formula")) {
+                variables.put(parameter.getKey(), number(parameter.getKey(), parameter.getValue()));
+            }
+        }
+        return "{\"result\":" + json(calculator.calculate(formula, variables)) + "}";
+    }
+
+    private String verify(HashMap<String, String> parameters) throws IncorrectFormulaException, LexicalException {
+        String equation = required(parameters, "equation");
+        double x = number("x", required(parameters, "x"));
+        String[] leftAndRight = MathAssistant.splitFormulaIntoLeftAndRightParts(equation);
+
+        HashMap<String, Double> variables = new HashMap<>();
+        variables.put("x", x);
+        boolean correct;
+        try {
+            correct = Math.abs(calculator.calculate(leftAndRight[0], variables)
+                    - calculator.calculate(leftAndRight[1], variables)) < MathAssistant.accuracy;
+        } catch (ArithmeticException e) {
+            correct = false;
+        }
+
+        storage.createEquation(equation);
+        if (correct) {
+            Integer equationId = storage.readEquationId(equation);
+            if (equationId != null) {
+                storage.createRoot(equationId, x);
+            }
+        }
+        return "{\"equation\":" + BatchProcessor.jsonString(equation) + ",\"x\":" + json(x) + ",\"correct\":" + correct + "}";
+    }
+
+    private String search(HashMap<String, String> parameters) {
+        double root = number("root", required(parameters, "root"));
+        int limit = parameters.containsKey("limit") ? Integer.parseInt(parameters.get("limit")) : DEFAULT_SEARCH_LIMIT;
+        int offset = parameters.containsKey("offset") ? Integer.parseInt(parameters.get("offset")) : 0;
+
+        StringBuilder body = new StringBuilder("{\"equations\":[");
+        ArrayList<String> equations = storage.readAllEquationsMatchingRoot(root, limit, offset);
+        for (int i = 0; i < equations.size(); i++) {
+            if (i > 0) {
+                body.append(',');
+            }
+            body.append(BatchProcessor.jsonString(equations.get(i)));
+        }
+        return body.append("]}").toString();
+    }
+
+    private static String required(HashMap<String, String> parameters, String name) {
+        String value = parameters.get(name);
+        if (value == null) {
+            throw new IllegalArgumentException("Parameter \"" + name + "\" is not set");
+        }
+        return value;
+    }
+
+    private static double number(String name, String value) {
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Parameter \"" + name + "\" is not a number");
+        }
+    }
+
+    // JSON has no NaN and Infinity
+    private static String json(double value) {
+        return Double.isFinite(value) ? Double.toString(value) : "null";
+    }
+
+    private static String error(String message) {
+        return "{\"error\":" + BatchProcessor.jsonString(String.valueOf(message)) + "}";
+    }
+
+    /**
+     * @return Parameters of query string and of form body, body wins
+     */
+    private static HashMap<String, String> parameters(HttpExchange exchange) throws IOException {
+        HashMap<String, String> parameters = new HashMap<>();
+        parse(exchange.getRequestURI().getRawQuery(), parameters);
+        if (exchange.getRequestMethod().equals("POST")) {
+            try (InputStream body = exchange.getRequestBody()) {
+                parse(new String(body.readAllBytes(), StandardCharsets.UTF_8), parameters);
+            }
+        }
+        return parameters;
+    }
+
+    private static void parse(String query, HashMap<String, String> parameters) {
+        if (query == null || query.isEmpty()) {
+            return;
+        }
+        for (String pair : query.split("&")) {
+            int separator = pair.indexOf('=');
+            if (separator <= 0) {
+                continue;
+            }
+            parameters.put(URLDecoder.decode(pair.substring(0, separator), StandardCharsets.UTF_8),
+                    URLDecoder.decode(pair.substring(separator + 1), StandardCharsets.UTF_8));
+        }
+    }
+
+    private static void send(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream output = exchange.getResponseBody()) {
+            output.write(bytes);
+        }
+    }
+
+    /**
+     * Runs server with arguments following "--server": [--port n] [--threads n] [--queue n] [--memory]
+     *
+     * @param args Arguments after "--server"
+     */
+    public static void main(String[] args) throws IOException {
+        int port = DEFAULT_PORT;
+        int threads = Runtime.getRuntime().availableProcessors() * 2;
+        int queueCapacity = DEFAULT_QUEUE_CAPACITY;
+        boolean memory = false;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--port" -> port = Integer.parseInt(args[++i]);
+                case "--threads" -> threads = Integer.parseInt(args[++i]);
+                case "--queue" -> queueCapacity = Integer.parseInt(args[++i]);
+                case "--memory" -> memory = true;
+                default -> throw new IllegalArgumentException("Unknown argument " + args[i]);
+            }
+        }
+
+        EquationStorage storage = memory ? new MemoryEquationStorage() : EquationStorage.open();
+        CalculatorServer server = new CalculatorServer(port, threads, queueCapacity, storage);
+        MathAssistant.persistFormulas(server.calculator);
+        Runtime.getRuntime().addShutdownHook(new Thread(server::close));
+        server.start();
+        System.err.printf(Locale.ROOT, "Listening on port %d with %d threads%n", server.getPort(), threads);
+    }
+}
@@ -0,0 +1,86 @@
+package gfl;
+
+import gfl.db.DatabaseConfig;
+
+import java.util.ArrayList;
+
+/**
+ * Storage of equations and their roots used by MathAssistant, batch mode and server.
+ * Backend is chosen by {@link DatabaseConfig#getBackend()}
+ */
+public interface EquationStorage extends AutoCloseable {
+
+    /**
+     * Opens backend selected by settings from {@link DatabaseConfig#load()}
+     *
+     * @return Storage
+     */
+    static EquationStorage open() {
+        return open(DatabaseConfig.load());
+    }
+
+    /**
+     * @param config Settings of storage
+     * @return PostgreSQL storage for backend "jdbc", log files for "log", memory for "memory"
+     * @throws IllegalArgumentException if backend is unknown
+     */
+    static EquationStorage open(DatabaseConfig config) {
+        return switch (config.getBackend()) {
+            case "jdbc" -> new CalculatorDB(config);
+            case "log" -> new LogEquationStorage(config);
+            case "memory" -> new MemoryEquationStorage(config.getRootTolerance());
+            default -> throw new IllegalArgumentException("Unknown storage backend \"" + config.getBackend() + "\"");
+        };
+    }
+
+    /**
+     * Saves equation, equation that is already saved is ignored
+     *
+     * @param equation Equation
+     */
+    void createEquation(String equation);
+
+    /**
+     * Saves root of equation, roots within tolerance of root already saved for equation are ignored
+     *
+     * @param equationId Id of equation
+     * @param value      Root
+     */
+    void createRoot(int equationId, double value);
+
+    /**
+     * Waits until saved roots are visible to reads
+     */
+    void flushRoots();
+
+    /**
+     * @param equationId Id of equation
+     * @return Equation or null if it is not saved
+     */
+    String readEquation(int equationId);
+
+    /**
+     * @param equation Equation
+     * @return Id of equation or null if it is not saved
+     */
+    Integer readEquationId(String equation);
+
+    /**
+     * @param root Root
+     * @return Ids of equations having exactly this root
+     */
+    Integer[] readAllEquationIdMatchingRoot(Double root);
+
+    /**
+     * Reads page of equations having root within tolerance of given one
+     *
+     * @param root   Root to search
+     * @param limit  Maximum number of equations, 0 or less for no limit
+     * @param offset Number of matching equations to skip, in order of equation id
+     * @return Equations
+     */
+    ArrayList<String> readAllEquationsMatchingRoot(double root, int limit, int offset);
+
+    @Override
+    void close();
+}
@@ -0,0 +1,299 @@
+package gfl;
+
+import gfl.db.DatabaseConfig;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Embedded equation storage without server. Every saved equation and root is appended to memory-mapped
+ * log files in a directory and indexed in memory, reads never touch the files.
+ * Log is replayed when storage is opened, record torn by a crash fails its checksum and is cut off with
+ * everything written after it, so ids of equations, which are their positions in log, never change.
+ * Appended records survive crash of the process, {@link #flushRoots()} and {@link #close()} also force them to disk
+ * <p>
+ * Log file is a sequence of records: int length of body, int CRC32 of body, body. Body of equation is
+ * type 1 and UTF-8 text, id of equation is its number in log. Body of root is type 2, int equation id
+ * and double value. Zero length marks end of written part of file, full file is continued by the next one
+ */
+public class LogEquationStorage extends MemoryEquationStorage {
+
+    static final byte EQUATION = 1;
+    static final byte ROOT = 2;
+    // Length and checksum
+    static final int RECORD_HEADER_SIZE = 8;
+    static final String SEGMENT_SUFFIX = ".log";
+
+    private final Path directory;
+    private final int segmentSize;
+    private final CRC32 crc = new CRC32();
+
+    // Log file records are appended to, guarded by this
+    private MappedByteBuffer segment;
+    private int segmentNumber;
+    private boolean closed;
+
+    private long replayedRecordCount;
+    private int truncatedRecordCount;
+
+    /**
+     * Opens log in {@link DatabaseConfig#getLogDirectory()}
+     *
+     * @param config Settings of storage
+     */
+    public LogEquationStorage(DatabaseConfig config) {
+        this(config.getLogDirectory(), config.getLogSegmentSize(), config.getRootTolerance());
+    }
+
+    /**
+     * @param directory     Directory of log files, created if missing
+     * @param segmentSize   Size of one log file in bytes, bigger records get a file of their own
+     * @param rootTolerance Relative tolerance of roots, see {@link CalculatorDB#toleranceOf(double)}
+     * @throws UncheckedIOException if log can not be read or created
+     */
+    public LogEquationStorage(Path directory, int segmentSize, double rootTolerance) {
+        super(rootTolerance);
+        if (segmentSize <= RECORD_HEADER_SIZE) {
+            throw new IllegalArgumentException("Segment size " + segmentSize + " is too small");
+        }
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        try {
+            Files.createDirectories(directory);
+            replay();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * @return Number of records read from log when storage was opened
+     */
+    public long getReplayedRecordCount() {
+        return replayedRecordCount;
+    }
+
+    /**
+     * @return Number of damaged records cut off when storage was opened, with the rest of log after them
+     */
+    public int getTruncatedRecordCount() {
+        return truncatedRecordCount;
+    }
+
+    @Override
+    public synchronized void createEquation(String equation) {
+        checkOpen();
+        if (readEquationId(equation) != null) {
+            return;
+        }
+        byte[] text = equation.getBytes(StandardCharsets.UTF_8);
+        append(ByteBuffer.allocate(1 + text.length).put(EQUATION).put(text));
+        super.createEquation(equation);
+    }
+
+    @Override
+    public synchronized void createRoot(int equationId, double value) {
+        checkOpen();
+        if (addRoot(equationId, value)) {
+            append(ByteBuffer.allocate(13).put(ROOT).putInt(equationId).putDouble(value));
+        }
+    }
+
+    /**
+     * Forces appended records to disk
+     */
+    @Override
+    public synchronized void flushRoots() {
+        if (!closed) {
+            segment.force();
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        if (!closed) {
+            segment.force();
+            closed = true;
+        }
+    }
+
+    private void checkOpen() {
+        if (closed) {
+            throw new IllegalStateException("Storage " + directory + " is closed");
+        }
+    }
+
+    /**
+     * Writes record at end of log, starts new log file if record does not fit in current one
+     *
+     * @param body Body of record, written from its start to its position
+     */
+    private void append(ByteBuffer body) {
+        body.flip();
+        int length = body.remaining();
+        if (segment.remaining() < RECORD_HEADER_SIZE + length) {
+            segment.force();
+            newSegment(Math.max(segmentSize, RECORD_HEADER_SIZE + length));
+        }
+        crc.reset();
+        crc.update(body.duplicate());
+
+        // Length is written last, until then replay sees end of log instead of half of record
+        int position = segment.position();
+        segment.position(position + RECORD_HEADER_SIZE);
+        segment.put(body);
+        segment.putInt(position + 4, (int) crc.getValue());
+        segment.putInt(position, length);
+    }
+
+    private void newSegment(int size) {
+        segmentNumber++;
+        Path file = directory.resolve(String.format(Locale.ROOT, "%08d%s", segmentNumber, SEGMENT_SUFFIX));
+        try {
+            segment = map(file, size);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Maps file for reading and writing, file shorter than size is extended with zeros
+     */
+    private static MappedByteBuffer map(Path file, long size) throws IOException {
+        try (FileChannel channel = FileChannel.open(file,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+    }
+
+    /**
+     * Rebuilds indexes from all log files, appending continues after last record of last file
+     */
+    private void replay() throws IOException {
+        List<Path> files;
+        try (Stream<Path> list = Files.list(directory)) {
+            files = list.filter(file -> file.getFileName().toString().matches("\\d+\\" + SEGMENT_SUFFIX))
+                    .sorted()
+                    .toList();
+        }
+
+        Roots roots = new Roots();
+        for (Path file : files) {
+            if (truncatedRecordCount > 0) {
+                // Written after damaged record, its equations would get wrong ids
+                Files.delete(file);
+                continue;
+            }
+            MappedByteBuffer buffer = map(file, Files.size(file));
+            buffer.position(replaySegment(buffer, roots));
+            String name = file.getFileName().toString();
+            segmentNumber = Integer.parseInt(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+            segment = buffer;
+        }
+        roots.load();
+
+        if (segment == null) {
+            newSegment(segmentSize);
+        }
+    }
+
+    /**
+     * Applies records of one log file, first damaged record is erased with the rest of the file
+     *
+     * @return Position after last valid record
+     */
+    private int replaySegment(MappedByteBuffer buffer, Roots roots) {
+        int position = 0;
+        while (buffer.limit() - position >= RECORD_HEADER_SIZE) {
+            int length = buffer.getInt(position);
+            if (length == 0) {
+                break;
+            }
+            if (length < 0 || length > buffer.limit() - position - RECORD_HEADER_SIZE
+                    || !applyRecord(buffer, position, length, roots)) {
+                buffer.put(position, new byte[buffer.limit() - position]);
+                truncatedRecordCount++;
+                break;
+            }
+            position += RECORD_HEADER_SIZE + length;
+            replayedRecordCount++;
+        }
+        return position;
+    }
+
+    /**
+     * @return false if record is damaged
+     */
+    private boolean applyRecord(ByteBuffer buffer, int position, int length, Roots roots) {
+        ByteBuffer body = buffer.slice(position + RECORD_HEADER_SIZE, length);
+        crc.reset();
+        crc.update(body.duplicate());
+        if ((int) crc.getValue() != buffer.getInt(position + 4)) {
+            return false;
+        }
+        switch (body.get()) {
+            case EQUATION -> {
+                byte[] text = new byte[body.remaining()];
+                body.get(text);
+                super.createEquation(new String(text, StandardCharsets.UTF_8));
+            }
+            case ROOT -> {
+                if (body.remaining() != 12) {
+                    return false;
+                }
+                roots.add(body.getInt(), body.getDouble());
+            }
+            default -> {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Roots read from log, loaded into index at once when replay ends
+     */
+    private class Roots {
+        private double[] values = new double[64];
+        private int[] equationIds = new int[64];
+        private int size;
+
+        void add(int equationId, double value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+                equationIds = Arrays.copyOf(equationIds, size * 2);
+            }
+            values[size] = value;
+            equationIds[size] = equationId;
+            size++;
+        }
+
+        void load() {
+            Integer[] order = new Integer[size];
+            Arrays.setAll(order, i -> i);
+            // Order of RootIndex: -0.0 equals 0.0 there, so Double.compare can not be used
+            Arrays.sort(order, (first, second) -> values[first] < values[second] ? -1
+                    : values[first] > values[second] ? 1
+                    : Integer.compare(equationIds[first], equationIds[second]));
+            double[] sortedValues = new double[size];
+            int[] sortedEquationIds = new int[size];
+            for (int i = 0; i < size; i++) {
+                sortedValues[i] = values[order[i]];
+                sortedEquationIds[i] = equationIds[order[i]];
+            }
+            loadRoots(sortedValues, sortedEquationIds, size);
+        }
+    }
+}
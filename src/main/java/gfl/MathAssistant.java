@@ -1,8 +1,10 @@
 package gfl;
 
+import gfl.calculator.Bindings;
 import gfl.calculator.Calculator;
 import gfl.calculator.FormulaTree;
 import gfl.calculator.LexicalAnalyzer;
+import gfl.calculator.RootFinder;
 import gfl.exceptions.IncorrectFormulaException;
 import gfl.exceptions.LexicalException;
 
@@ -13,8 +15,16 @@ import javax.swing.event.DocumentListener;
 
 import java.awt.*;
 import java.awt.event.*;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class MathAssistant {
 
@@ -31,23 +41,62 @@ public class MathAssistant {
     JLabel currentFormulaLabel = new JLabel("");
     JLabel errorMessageLabel;
 
-    CalculatorDB db;
+    EquationStorage db;
     JButton calculateBtn;
 
     JList<String> searchJList;
     DefaultListModel<String> searchDefaultListModel;
 
+    // Evaluation, parsing and database calls run on this thread
+    private final ScheduledExecutorService worker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "math-assistant-worker");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // Incremented by every input that supersedes shown result or search, used on EDT and worker
+    private final AtomicLong parameterGeneration = new AtomicLong();
+    private final AtomicLong searchGeneration = new AtomicLong();
+
+    // Evaluation waiting for end of typing, used on EDT
+    private ScheduledFuture<?> pendingParameter = null;
+
+    // Current formula, used only by worker
     FormulaTree leftFormulaTree = null;
     FormulaTree rightFormulaTree = null;
+    String currentFormula = null;
+
+    // Reused on every keystroke, slot of "x" is resolved when formula is set
+    Bindings leftBindings = null;
+    Bindings rightBindings = null;
+    int leftParameterSlot = -1;
+    int rightParameterSlot = -1;
 
     final static int APPLICATION_HEIGHT = 400;
     final static int APPLICATION_WIDTH = 600;
 
     final static double accuracy = 1e-9;
 
+    // File of parsed formulas kept between runs
+    final static String FORMULA_STORE_PROPERTY = "gfl.formula.store";
+
+    // Pause in typing of parameter before it is evaluated
+    final static int DEBOUNCE_MILLIS = 150;
+
+    // Maximum number of equations shown by search
+    final static int SEARCH_LIMIT = 1000;
+
+    // Interval scanned by "Find roots"
+    final static double ROOT_SEARCH_FROM = -1000;
+    final static double ROOT_SEARCH_TO = 1000;
+
+    private RootFinder rootFinder;
+
     private void init() {
 
         calculator = new Calculator();
+        rootFinder = new RootFinder(calculator).setFunctionTolerance(accuracy);
+        persistFormulas(calculator);
 
         setupMainFrame();
         addFormulaInputPanel();
@@ -64,12 +113,62 @@ public class MathAssistant {
      * Creates database and start program
      */
     public void run() {
-        db = new CalculatorDB();
+        db = EquationStorage.open();
+        // Running work and queued roots are finished before JVM exits
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            worker.shutdown();
+            try {
+                worker.awaitTermination(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            db.close();
+        }));
         init();
     }
 
 
-    public static void main(String[] args) {
+    /**
+     * Opens file of parsed formulas given by -Dgfl.formula.store, if it exists, and saves formulas
+     * of calculator to it when JVM exits
+     *
+     * @param calculator Calculator whose formulas are persisted
+     */
+    static void persistFormulas(Calculator calculator) {
+        String file = System.getProperty(FORMULA_STORE_PROPERTY);
+        if (file == null) {
+            return;
+        }
+        Path path = Path.of(file);
+        if (Files.exists(path)) {
+            try {
+                calculator.openFormulaStore(path);
+            } catch (IOException e) {
+                System.err.println("Formula store is not used: " + e.getMessage());
+            }
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                calculator.saveFormulas(path);
+            } catch (IOException e) {
+                System.err.println("Formula store is not saved: " + e.getMessage());
+            }
+        }));
+    }
+
+    /**
+     * Starts UI, batch mode if first argument is "--batch", see {@link BatchProcessor#main(String[])},
+     * or HTTP server if it is "--server", see {@link CalculatorServer#main(String[])}
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length > 0 && args[0].equals("--batch")) {
+            BatchProcessor.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+        if (args.length > 0 && args[0].equals("--server")) {
+            CalculatorServer.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
         MathAssistant mathAssistant = new MathAssistant();
         mathAssistant.run();
     }
@@ -81,60 +180,145 @@ public class MathAssistant {
             errorMessageLabel.setText("Wrong characters in formula");
             return;
         }
+        // Pending evaluations belong to previous formula
+        parameterGeneration.incrementAndGet();
+        worker.execute(() -> applyFormula(fullFormula));
+    }
 
+    /**
+     * Runs on worker, parses formula and saves it
+     */
+    private void applyFormula(String fullFormula) {
         try {
             String[] leftAndRightFormula = splitFormulaIntoLeftAndRightParts(fullFormula);
-            leftFormulaTree = calculator.createOrReturnFormulaTree(leftAndRightFormula[0]);
-            rightFormulaTree = calculator.createOrReturnFormulaTree(leftAndRightFormula[1]);
+            FormulaTree left = calculator.createOrReturnFormulaTree(leftAndRightFormula[0]);
+            FormulaTree right = calculator.createOrReturnFormulaTree(leftAndRightFormula[1]);
+            leftFormulaTree = left;
+            rightFormulaTree = right;
+            leftBindings = left.newBindings();
+            rightBindings = right.newBindings();
+            leftParameterSlot = left.getVariableSlot("x");
+            rightParameterSlot = right.getVariableSlot("x");
         } catch (IncorrectFormulaException | LexicalException e) {
-            errorMessageLabel.setText(e.getMessage());
+            String message = e.getMessage();
+            SwingUtilities.invokeLater(() -> errorMessageLabel.setText(message));
             return;
         }
-        errorMessageLabel.setText(null);
-        db.createEquation(formulaInputField.getText());
-
+        currentFormula = fullFormula;
+        db.createEquation(fullFormula);
 
-        currentFormulaLabel.setText(formulaInputField.getText());
+        SwingUtilities.invokeLater(() -> {
+            errorMessageLabel.setText(null);
+            currentFormulaLabel.setText(fullFormula);
+        });
     }
 
+    /**
+     * Called on every change of parameter, evaluation is scheduled after input stops for DEBOUNCE_MILLIS
+     */
     private void setParameter() {
-        if (leftFormulaTree == null || rightFormulaTree == null) {
-            return;
+        String parameterText = parameterInputField.getText();
+        long generation = parameterGeneration.incrementAndGet();
+        if (pendingParameter != null) {
+            pendingParameter.cancel(false);
         }
+        pendingParameter = worker.schedule(() -> evaluateParameter(generation, parameterText), DEBOUNCE_MILLIS, TimeUnit.MILLISECONDS);
+    }
 
+    /**
+     * Runs on worker, checks whether parameter is a root and saves it. Does nothing once superseded by newer input
+     */
+    private void evaluateParameter(long generation, String parameterText) {
+        if (generation != parameterGeneration.get() || leftFormulaTree == null || rightFormulaTree == null) {
+            return;
+        }
 
-
-        HashMap<String, Double> variables = new HashMap<String, Double>();
         double parameterValue;
 
         try {
-            parameterValue = Double.parseDouble(parameterInputField.getText());
+            parameterValue = Double.parseDouble(parameterText);
         } catch (NumberFormatException e) {
             return;
         }
 
-        variables.put("x", parameterValue);
+        if (leftParameterSlot != -1) {
+            leftBindings.set(leftParameterSlot, parameterValue);
+        }
+        if (rightParameterSlot != -1) {
+            rightBindings.set(rightParameterSlot, parameterValue);
+        }
 
         double leftResult;
         double rightResult;
         try {
-            leftResult = calculator.calculateFormulaThree(leftFormulaTree, variables);
-            rightResult = calculator.calculateFormulaThree(rightFormulaTree, variables);
-        } catch (IncorrectFormulaException | LexicalException | ArithmeticException e) {
-            resultLabel.setText(null);
+            leftResult = calculator.calculateFormulaThree(leftFormulaTree, leftBindings);
+            rightResult = calculator.calculateFormulaThree(rightFormulaTree, rightBindings);
+        } catch (IncorrectFormulaException | ArithmeticException e) {
+            publishResult(generation, null, null);
             return;
         }
         if (Math.abs(leftResult - rightResult) < accuracy) {
-            resultLabel.setForeground(Color.green);
-            resultLabel.setText("correct");
-            Integer equationId = db.readEquationId(currentFormulaLabel.getText());
+            if (generation != parameterGeneration.get()) {
+                return;
+            }
+            Integer equationId = db.readEquationId(currentFormula);
             if (equationId != null) {
                 db.createRoot(equationId, parameterValue);
             }
+            publishResult(generation, Color.green, "correct");
         } else {
-            resultLabel.setForeground(Color.red);
-            resultLabel.setText("wrong");
+            publishResult(generation, Color.red, "wrong");
+        }
+    }
+
+    /**
+     * Shows result unless newer input arrived meanwhile
+     *
+     * @param color Color of result, null to keep current one
+     */
+    private void publishResult(long generation, Color color, String text) {
+        SwingUtilities.invokeLater(() -> {
+            if (generation != parameterGeneration.get()) {
+                return;
+            }
+            if (color != null) {
+                resultLabel.setForeground(color);
+            }
+            resultLabel.setText(text);
+        });
+    }
+
+    /**
+     * Finds roots of current formula in [ROOT_SEARCH_FROM, ROOT_SEARCH_TO] and saves them
+     */
+    private void findRoots(ActionEvent a) {
+        long generation = parameterGeneration.incrementAndGet();
+        worker.execute(() -> findRoots(generation));
+    }
+
+    /**
+     * Runs on worker, found roots are saved even if result is superseded
+     */
+    private void findRoots(long generation) {
+        if (leftFormulaTree == null || rightFormulaTree == null) {
+            return;
+        }
+        double[] roots;
+        try {
+            roots = rootFinder.findRoots(leftFormulaTree, rightFormulaTree, "x", ROOT_SEARCH_FROM, ROOT_SEARCH_TO);
+        } catch (IncorrectFormulaException e) {
+            String message = e.getMessage();
+            SwingUtilities.invokeLater(() -> errorMessageLabel.setText(message));
+            return;
         }
+
+        Integer equationId = db.readEquationId(currentFormula);
+        if (equationId != null) {
+            for (double root : roots) {
+                db.createRoot(equationId, root);
+            }
+        }
+        publishResult(generation, Color.black, roots.length == 0 ? "no roots found" : "roots: " + Arrays.toString(roots));
     }
 
     private void search(ActionEvent a) {
@@ -145,14 +329,20 @@ public class MathAssistant {
         } catch (NumberFormatException e){
             return;
         }
-        Integer[] equationIdArray = db.readAllEquationIdMatchingRoot(searchDoubleValue);
-        ArrayList<String> equations = new ArrayList<>();
-
-        for (Integer equationId : equationIdArray){
-            equations.add(db.readEquation(equationId));
-        }
-        searchDefaultListModel.clear();
-        searchDefaultListModel.addAll(equations);
+        long generation = searchGeneration.incrementAndGet();
+        worker.execute(() -> {
+            if (generation != searchGeneration.get()) {
+                return;
+            }
+            ArrayList<String> equations = db.readAllEquationsMatchingRoot(searchDoubleValue, SEARCH_LIMIT, 0);
+            SwingUtilities.invokeLater(() -> {
+                if (generation != searchGeneration.get()) {
+                    return;
+                }
+                searchDefaultListModel.clear();
+                searchDefaultListModel.addAll(equations);
+            });
+        });
 
     }
 
@@ -203,9 +393,13 @@ public class MathAssistant {
 
         resultLabel = new JLabel();
 
+        JButton findRootsBtn = new JButton("Find roots");
+        findRootsBtn.addActionListener(this::findRoots);
+
         JPanel panel = new JPanel(new FlowLayout(FlowLayout.LEFT));
         panel.add(parameterLabel);
         panel.add(parameterInputField);
+        panel.add(findRootsBtn);
         panel.add(resultLabel);
 
 
@@ -272,7 +466,7 @@ public class MathAssistant {
     }
 
 
-    private String[] splitFormulaIntoLeftAndRightParts(String formula) throws IncorrectFormulaException {
+    static String[] splitFormulaIntoLeftAndRightParts(String formula) throws IncorrectFormulaException {
 
         String[] leftAndRightPart = formula.split("=");
         if (leftAndRightPart.length != 2) {
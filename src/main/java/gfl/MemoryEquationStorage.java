@@ -0,0 +1,104 @@
+package gfl;
+
+import gfl.db.DatabaseConfig;
+import gfl.db.RootIndex;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Equation storage kept in memory, stand-in for CalculatorDB in tests and local runs without PostgreSQL.
+ * Roots are matched with the same tolerance as in CalculatorDB
+ */
+public class MemoryEquationStorage implements EquationStorage {
+
+    private final double rootTolerance;
+
+    private final ConcurrentHashMap<String, Integer> equationIds = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Integer, String> equations = new ConcurrentHashMap<>();
+    private final AtomicInteger lastEquationId = new AtomicInteger();
+    private final RootIndex rootIndex = new RootIndex();
+
+    /**
+     * Uses root tolerance from {@link DatabaseConfig#load()}
+     */
+    public MemoryEquationStorage() {
+        this(DatabaseConfig.load().getRootTolerance());
+    }
+
+    /**
+     * @param rootTolerance Relative tolerance of roots, see {@link CalculatorDB#toleranceOf(double)}
+     */
+    public MemoryEquationStorage(double rootTolerance) {
+        this.rootTolerance = rootTolerance;
+    }
+
+    private double toleranceOf(double value) {
+        return rootTolerance * Math.max(1., Math.abs(value));
+    }
+
+    @Override
+    public void createEquation(String equation) {
+        equationIds.computeIfAbsent(equation, key -> {
+            int id = lastEquationId.incrementAndGet();
+            equations.put(id, key);
+            return id;
+        });
+    }
+
+    @Override
+    public void createRoot(int equationId, double value) {
+        addRoot(equationId, value);
+    }
+
+    /**
+     * @return true if root was added, false if equation is not saved or already has such root
+     */
+    boolean addRoot(int equationId, double value) {
+        return equations.containsKey(equationId) && rootIndex.add(equationId, value, toleranceOf(value));
+    }
+
+    /**
+     * Replaces all roots, see {@link RootIndex#load(double[], int[], int)}
+     */
+    void loadRoots(double[] values, int[] equationIds, int size) {
+        rootIndex.load(values, equationIds, size);
+    }
+
+    @Override
+    public void flushRoots() {
+        // Roots are visible as soon as they are created
+    }
+
+    @Override
+    public String readEquation(int equationId) {
+        return equations.get(equationId);
+    }
+
+    @Override
+    public Integer readEquationId(String equation) {
+        return equationIds.get(equation);
+    }
+
+    @Override
+    public Integer[] readAllEquationIdMatchingRoot(Double root) {
+        return Arrays.stream(rootIndex.findExact(root)).boxed().toArray(Integer[]::new);
+    }
+
+    @Override
+    public ArrayList<String> readAllEquationsMatchingRoot(double root, int limit, int offset) {
+        double tolerance = toleranceOf(root);
+        int[] ids = rootIndex.findRange(root - tolerance, root + tolerance);
+        ArrayList<String> found = new ArrayList<>();
+        for (int i = Math.max(offset, 0); i < ids.length && (limit <= 0 || found.size() < limit); i++) {
+            found.add(equations.get(ids[i]));
+        }
+        return found;
+    }
+
+    @Override
+    public void close() {
+    }
+}
@@ -0,0 +1,74 @@
+package gfl.calculator;
+
+import gfl.exceptions.IncorrectFormulaException;
+
+import java.util.Arrays;
+
+/**
+ * Reusable values of variables of one formula, stored in slots of the formula.
+ * Not thread-safe, use one instance per thread
+ */
+public class Bindings {
+
+    private final String[] variableNames;
+    private final double[] values;
+    private final boolean[] isSet;
+
+    Bindings(String[] variableNames) {
+        this.variableNames = variableNames;
+        this.values = new double[variableNames.length];
+        this.isSet = new boolean[variableNames.length];
+    }
+
+    /**
+     * Sets value of variable, variables that formula does not use are ignored
+     *
+     * @param variableName Name of variable
+     * @param value        Value of variable
+     * @return this
+     */
+    public Bindings set(String variableName, double value) {
+        for (int slot = 0; slot < variableNames.length; slot++) {
+            if (variableNames[slot].equals(variableName)) {
+                return set(slot, value);
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Sets value of variable by its slot, see {@link FormulaTree#getVariableSlot(String)}
+     *
+     * @param slot  Slot of variable
+     * @param value Value of variable
+     * @return this
+     */
+    public Bindings set(int slot, double value) {
+        values[slot] = value;
+        isSet[slot] = true;
+        return this;
+    }
+
+    /**
+     * Unsets all variables
+     *
+     * @return this
+     */
+    public Bindings clear() {
+        Arrays.fill(isSet, false);
+        return this;
+    }
+
+    /**
+     * @return Values in slots, array is shared with this object
+     * @throws IncorrectFormulaException Variable is not set
+     */
+    double[] values() throws IncorrectFormulaException {
+        for (int slot = 0; slot < isSet.length; slot++) {
+            if (!isSet[slot]) {
+                throw new IncorrectFormulaException("Argument " + "\"" + variableNames[slot] + "\" is not set");
+            }
+        }
+        return values;
+    }
+}
@@ -0,0 +1,318 @@
+package gfl.calculator;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.HashMap;
+
+/**
+ * Compiles postfix program of formula into a hidden class implementing {@link FormulaFunction}.
+ * Hidden classes are not strongly bound to their class loader, so generated class is unloaded
+ * as soon as its formula is not referenced anymore
+ */
+abstract public class BytecodeCompiler {
+
+    static final String CLASS_NAME = "gfl/calculator/GeneratedFormula";
+    static final String INTERFACE_NAME = "gfl/calculator/FormulaFunction";
+    static final String SUPPORT_CLASS_NAME = "gfl/calculator/CompiledFormula";
+
+    // Class file version of Java 17, method has no branches so no stack map frames are needed
+    static final int CLASS_FILE_VERSION = 61;
+    static final int MAX_CODE_LENGTH = 65535;
+
+    static final int ACC_PUBLIC = 0x0001;
+    static final int ACC_FINAL = 0x0010;
+    static final int ACC_SUPER = 0x0020;
+
+    // Opcodes of JVM instructions used by generated code
+    static final int ICONST_0 = 0x03;
+    static final int DCONST_0 = 0x0e;
+    static final int DCONST_1 = 0x0f;
+    static final int BIPUSH = 0x10;
+    static final int SIPUSH = 0x11;
+    static final int LDC2_W = 0x14;
+    static final int DLOAD = 0x18;
+    static final int DSTORE = 0x39;
+    static final int DUP2 = 0x5c;
+    static final int WIDE = 0xc4;
+    static final int ALOAD_0 = 0x2a;
+    static final int ALOAD_1 = 0x2b;
+    static final int DALOAD = 0x31;
+    static final int DADD = 0x63;
+    static final int DSUB = 0x67;
+    static final int DMUL = 0x6b;
+    static final int DNEG = 0x77;
+    static final int DRETURN = 0xaf;
+    static final int RETURN = 0xb1;
+    static final int INVOKESPECIAL = 0xb7;
+    static final int INVOKESTATIC = 0xb8;
+
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+
+    /**
+     * Compiles formula into new hidden class and creates its instance
+     *
+     * @param compiledFormula Postfix program of formula
+     * @return Function evaluating formula
+     * @throws IllegalArgumentException Formula is too big to fit in one JVM method
+     */
+    public static FormulaFunction compile(CompiledFormula compiledFormula) throws IllegalArgumentException {
+        byte[] classBytes = generateClass(compiledFormula);
+        try {
+            MethodHandles.Lookup hiddenClassLookup = LOOKUP.defineHiddenClass(classBytes, true);
+            return (FormulaFunction) hiddenClassLookup
+                    .findConstructor(hiddenClassLookup.lookupClass(), MethodType.methodType(void.class))
+                    .invoke();
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IllegalStateException("Can not define class for formula", e);
+        }
+    }
+
+    /**
+     * Generates class file implementing FormulaFunction
+     *
+     * @param compiledFormula Postfix program of formula
+     * @return Class file bytes
+     */
+    static byte[] generateClass(CompiledFormula compiledFormula) {
+        ConstantPool constantPool = new ConstantPool();
+        int thisClass = constantPool.classInfo(CLASS_NAME);
+        int superClass = constantPool.classInfo("java/lang/Object");
+        int interfaceClass = constantPool.classInfo(INTERFACE_NAME);
+        int objectConstructor = constantPool.methodRef(superClass, "<init>", "()V");
+        int divideMethod = constantPool.methodRef(constantPool.classInfo(SUPPORT_CLASS_NAME), "divide", "(DD)D");
+        int constructorName = constantPool.utf8("<init>");
+        int constructorDescriptor = constantPool.utf8("()V");
+        int evalName = constantPool.utf8("eval");
+        int evalDescriptor = constantPool.utf8("([D)D");
+        int codeAttribute = constantPool.utf8("Code");
+
+        ByteArrayOutputStream constructorCode = new ByteArrayOutputStream();
+        constructorCode.write(ALOAD_0);
+        constructorCode.write(INVOKESPECIAL);
+        writeShort(constructorCode, objectConstructor);
+        constructorCode.write(RETURN);
+
+        ByteArrayOutputStream evalCode = generateEvalCode(compiledFormula, constantPool, divideMethod);
+        if (evalCode.size() > MAX_CODE_LENGTH || constantPool.size() > 0xffff) {
+            throw new IllegalArgumentException("Formula is too big to be compiled into bytecode");
+        }
+
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);
+            out.writeShort(CLASS_FILE_VERSION);
+            constantPool.write(out);
+            out.writeShort(ACC_PUBLIC | ACC_FINAL | ACC_SUPER);
+            out.writeShort(thisClass);
+            out.writeShort(superClass);
+            // Interfaces
+            out.writeShort(1);
+            out.writeShort(interfaceClass);
+            // Fields
+            out.writeShort(0);
+            // Methods
+            out.writeShort(2);
+            writeMethod(out, constructorName, constructorDescriptor, codeAttribute, 1, 1, constructorCode);
+            // Doubles take two stack words, LOAD_VARIABLE needs two more for array and index (DUP2 for STORE_TEMPORARY too).
+            // Locals are this, array of variables and one double per temporary
+            writeMethod(out, evalName, evalDescriptor, codeAttribute,
+                    compiledFormula.getMaxStackDepth() * 2 + 2, 2 + compiledFormula.temporaryCount * 2, evalCode);
+            // Class attributes
+            out.writeShort(0);
+            out.flush();
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Translates every opcode of postfix program into JVM instructions working on operand stack
+     */
+    private static ByteArrayOutputStream generateEvalCode(CompiledFormula compiledFormula, ConstantPool constantPool, int divideMethod) {
+        ByteArrayOutputStream code = new ByteArrayOutputStream();
+        int[] program = compiledFormula.code;
+        int pc = 0;
+        while (pc < program.length) {
+            switch (program[pc++]) {
+                case CompiledFormula.PUSH_CONSTANT -> {
+                    double value = compiledFormula.constants[program[pc++]];
+                    if (Double.doubleToRawLongBits(value) == Double.doubleToRawLongBits(0.)) {
+                        code.write(DCONST_0);
+                    } else if (value == 1.) {
+                        code.write(DCONST_1);
+                    } else {
+                        code.write(LDC2_W);
+                        writeShort(code, constantPool.doubleInfo(value));
+                    }
+                }
+                case CompiledFormula.LOAD_VARIABLE -> {
+                    code.write(ALOAD_1);
+                    writeInt(code, program[pc++]);
+                    code.write(DALOAD);
+                }
+                case CompiledFormula.ADD -> code.write(DADD);
+                case CompiledFormula.SUBTRACT -> code.write(DSUB);
+                case CompiledFormula.MULTIPLY -> code.write(DMUL);
+                case CompiledFormula.DIVIDE -> {
+                    // Zero division check is done by the same helper the stack machine uses
+                    code.write(INVOKESTATIC);
+                    writeShort(code, divideMethod);
+                }
+                case CompiledFormula.NEGATE -> code.write(DNEG);
+                case CompiledFormula.STORE_TEMPORARY -> {
+                    code.write(DUP2);
+                    writeLocal(code, DSTORE, 2 + program[pc++] * 2);
+                }
+                case CompiledFormula.LOAD_TEMPORARY -> writeLocal(code, DLOAD, 2 + program[pc++] * 2);
+            }
+        }
+        code.write(DRETURN);
+        return code;
+    }
+
+    private static void writeInt(ByteArrayOutputStream code, int value) {
+        if (value <= 5) {
+            code.write(ICONST_0 + value);
+        } else if (value <= Byte.MAX_VALUE) {
+            code.write(BIPUSH);
+            code.write(value);
+        } else if (value <= Short.MAX_VALUE) {
+            code.write(SIPUSH);
+            writeShort(code, value);
+        } else {
+            throw new IllegalArgumentException("Formula has too many variables to be compiled into bytecode");
+        }
+    }
+
+    private static void writeLocal(ByteArrayOutputStream code, int opcode, int local) {
+        if (local > 0xffff) {
+            throw new IllegalArgumentException("Formula has too many shared subexpressions to be compiled into bytecode");
+        }
+        if (local > 0xff) {
+            code.write(WIDE);
+            code.write(opcode);
+            writeShort(code, local);
+        } else {
+            code.write(opcode);
+            code.write(local);
+        }
+    }
+
+    private static void writeShort(ByteArrayOutputStream code, int value) {
+        code.write((value >>> 8) & 0xff);
+        code.write(value & 0xff);
+    }
+
+    private static void writeMethod(DataOutputStream out, int name, int descriptor, int codeAttribute,
+                                    int maxStack, int maxLocals, ByteArrayOutputStream code) throws IOException {
+        out.writeShort(ACC_PUBLIC);
+        out.writeShort(name);
+        out.writeShort(descriptor);
+        // One attribute: Code
+        out.writeShort(1);
+        out.writeShort(codeAttribute);
+        out.writeInt(12 + code.size());
+        out.writeShort(maxStack);
+        out.writeShort(maxLocals);
+        out.writeInt(code.size());
+        code.writeTo(out);
+        // Exception table and code attributes
+        out.writeShort(0);
+        out.writeShort(0);
+    }
+
+    /**
+     * Constant pool of generated class, equal entries are stored once
+     */
+    private static class ConstantPool {
+        static final int CONSTANT_UTF8 = 1;
+        static final int CONSTANT_DOUBLE = 6;
+        static final int CONSTANT_CLASS = 7;
+        static final int CONSTANT_METHOD_REF = 10;
+        static final int CONSTANT_NAME_AND_TYPE = 12;
+
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private final DataOutputStream out = new DataOutputStream(bytes);
+        private final HashMap<String, Integer> entries = new HashMap<>();
+        // Index 0 is not used by class file format
+        private int nextIndex = 1;
+
+        int size() {
+            return nextIndex;
+        }
+
+        int utf8(String value) {
+            return entry("U" + value, 1, () -> {
+                out.writeByte(CONSTANT_UTF8);
+                out.writeUTF(value);
+            });
+        }
+
+        int classInfo(String internalName) {
+            int name = utf8(internalName);
+            return entry("C" + internalName, 1, () -> {
+                out.writeByte(CONSTANT_CLASS);
+                out.writeShort(name);
+            });
+        }
+
+        int methodRef(int owner, String name, String descriptor) {
+            int nameIndex = utf8(name);
+            int descriptorIndex = utf8(descriptor);
+            int nameAndType = entry("N" + nameIndex + ":" + descriptorIndex, 1, () -> {
+                out.writeByte(CONSTANT_NAME_AND_TYPE);
+                out.writeShort(nameIndex);
+                out.writeShort(descriptorIndex);
+            });
+            return entry("M" + owner + ":" + nameAndType, 1, () -> {
+                out.writeByte(CONSTANT_METHOD_REF);
+                out.writeShort(owner);
+                out.writeShort(nameAndType);
+            });
+        }
+
+        int doubleInfo(double value) {
+            long bits = Double.doubleToRawLongBits(value);
+            // Double constants take two entries of constant pool
+            return entry("D" + bits, 2, () -> {
+                out.writeByte(CONSTANT_DOUBLE);
+                out.writeLong(bits);
+            });
+        }
+
+        void write(DataOutputStream classOut) throws IOException {
+            out.flush();
+            classOut.writeShort(nextIndex);
+            bytes.writeTo(classOut);
+        }
+
+        private int entry(String key, int slots, EntryWriter writer) {
+            Integer index = entries.get(key);
+            if (index != null) {
+                return index;
+            }
+            try {
+                writer.write();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            index = nextIndex;
+            nextIndex += slots;
+            entries.put(key, index);
+            return index;
+        }
+
+        private interface EntryWriter {
+            void write() throws IOException;
+        }
+    }
+}
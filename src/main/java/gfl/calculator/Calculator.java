@@ -2,20 +2,155 @@ package gfl.calculator;
 
 import gfl.exceptions.IncorrectFormulaException;
 import gfl.exceptions.LexicalException;
+import gfl.metrics.Metrics;
+import gfl.metrics.Timer;
 
+import java.io.IOException;
+import java.lang.reflect.UndeclaredThrowableException;
+import java.nio.file.Path;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.LongAdder;
 
 
 /**
- * Calculator that can take arguments formula and variables and return result
+ * Calculator that can take arguments formula and variables and return result.
+ * Calculator is thread-safe: storage, trees and compiled formulas are shared by all threads, stacks of RPN engine
+ * are per thread. Only {@link Bindings} are not thread-safe, a thread must not change bindings used by another one
  */
 public class Calculator {
 
-    HashMap<String, FormulaTree> storage = new HashMap<>();
+    /**
+     * Way formulas are evaluated
+     */
+    public enum Engine {
+        /**
+         * Recursive walk over tree of nodes, subexpressions shared in tree are computed at every use
+         */
+        TREE,
+        /**
+         * Stack machine over compiled postfix program
+         */
+        RPN,
+        /**
+         * Formula compiled into hidden JVM class, compiled when formula is added to storage
+         */
+        BYTECODE,
+        /**
+         * Formula starts in interpreters: tree walk for variables given by name, postfix program for slots.
+         * After {@link #getPromotionThreshold()} evaluations it is compiled into hidden JVM class
+         * on a background thread and later evaluations use the class
+         */
+        TIERED
+    }
+
+    static final int DEFAULT_MAXIMUM_SIZE = 10_000;
+
+    static final int DEFAULT_PROMOTION_THRESHOLD = 1_000;
+
+    // Pairs of formula and bindings evaluated by one task of calculateAll
+    static final int EVALUATIONS_PER_TASK = 256;
+
+    static final Timer CALCULATE_TIMER = Metrics.timer("calculate");
+    // Evaluation with bindings, used by UI and batch mode on every value
+    static final Timer EVALUATE_TIMER = Metrics.timer("evaluate");
+
+    final FormulaCache storage;
+
+    private final Engine engine;
+
+    // Whether new formulas are simplified by FormulaOptimizer before they are stored
+    private volatile boolean optimizing = true;
+
+    // File of formulas saved by earlier run, null if not opened
+    private volatile FormulaStore formulaStore;
+
+    // Evaluations of formula after which TIERED engine compiles it
+    private volatile int promotionThreshold = DEFAULT_PROMOTION_THRESHOLD;
+    private final LongAdder promotions = new LongAdder();
+
+    // Reusable stack for RPN engine per thread, grows to the deepest formula evaluated
+    private final ThreadLocal<double[]> stacks = ThreadLocal.withInitial(() -> new double[16]);
+
+    public Calculator() {
+        this(Engine.RPN);
+    }
+
+    public Calculator(Engine engine) {
+        this(engine, DEFAULT_MAXIMUM_SIZE);
+    }
+
+    /**
+     * @param engine      Way formulas are evaluated
+     * @param maximumSize Maximum number of formulas kept in storage
+     */
+    public Calculator(Engine engine, int maximumSize) {
+        this.engine = engine;
+        this.storage = new FormulaCache(maximumSize);
+        Metrics.registerCache(storage);
+    }
+
+    public Engine getEngine() {
+        return engine;
+    }
+
+    public boolean isOptimizing() {
+        return optimizing;
+    }
+
+    /**
+     * @param optimizing true to fold constants and apply identities to formulas added to storage from now on
+     */
+    public void setOptimizing(boolean optimizing) {
+        this.optimizing = optimizing;
+    }
+
+    public int getPromotionThreshold() {
+        return promotionThreshold;
+    }
+
+    /**
+     * @param promotionThreshold Evaluations of formula after which TIERED engine compiles it into JVM class
+     */
+    public void setPromotionThreshold(int promotionThreshold) {
+        if (promotionThreshold < 1) {
+            throw new IllegalArgumentException("Promotion threshold must be positive: " + promotionThreshold);
+        }
+        this.promotionThreshold = promotionThreshold;
+    }
+
+    /**
+     * @return Number of formulas compiled by TIERED engine
+     */
+    public long getPromotionCount() {
+        return promotions.sum();
+    }
+
+    /**
+     * @return Number of evaluations of every formula in storage by TIERED engine
+     */
+    public Map<String, Long> getEvaluationCounts() {
+        HashMap<String, Long> counts = new HashMap<>();
+        storage.forEach((formula, formulaTree) -> counts.put(formula, formulaTree.getEvaluationCount()));
+        return counts;
+    }
+
+    /**
+     * @return Storage of formulas with its hit, miss and eviction counters
+     */
+    public FormulaCache getStorage() {
+        return storage;
+    }
 
 
     /**
-     * Create FormulaTree of formula if it is not present in storage HashMap yet. If present returns it
+     * Create FormulaTree of formula if it is not present in storage yet. If present returns it.
+     * Safe to call from many threads, concurrent calls with the same new formula create it once
      *
      * @param formula Math formula
      * @return Tree of formula
@@ -23,12 +158,71 @@ public class Calculator {
      * @throws LexicalException
      */
     public FormulaTree createOrReturnFormulaTree(String formula) throws IncorrectFormulaException, LexicalException {
-        if (storage.containsKey(formula)) {
-            return storage.get(formula);
-        }
+        return storage.get(formula, this::createFormulaTree);
+    }
+
+    /**
+     * Derivative of formula, cached together with formula in storage
+     *
+     * @param formula      Math formula
+     * @param variableName Variable to differentiate by
+     * @return Tree of derivative
+     * @throws IncorrectFormulaException
+     * @throws LexicalException
+     */
+    public FormulaTree createOrReturnDerivative(String formula, String variableName) throws IncorrectFormulaException, LexicalException {
+        return createOrReturnFormulaTree(formula).derivative(variableName);
+    }
+
+    /**
+     * Maps file of formulas saved by {@link #saveFormulas(Path)}, formulas missing in storage are decoded
+     * from it instead of being parsed
+     *
+     * @param path File of formulas
+     * @throws IOException if file can not be read or is not a valid formula store
+     */
+    public void openFormulaStore(Path path) throws IOException {
+        formulaStore = FormulaStore.open(path);
+    }
 
-        FormulaTree formulaTree = FormulaTree.createFormulaTree(LexicalAnalyzer.tokenize(formula));
-        storage.put(formula, formulaTree);
+    /**
+     * @return Opened file of formulas or null
+     */
+    public FormulaStore getFormulaStore() {
+        return formulaStore;
+    }
+
+    /**
+     * Saves formulas of storage, together with formulas of opened store, to file replacing it atomically
+     *
+     * @param path File of formulas
+     * @throws IOException if file can not be written
+     */
+    public void saveFormulas(Path path) throws IOException {
+        LinkedHashMap<String, FormulaTree> formulaTrees = new LinkedHashMap<>();
+        storage.forEach(formulaTrees::put);
+        FormulaStore.write(path, formulaTrees, optimizing, formulaStore);
+    }
+
+    private FormulaTree createFormulaTree(String formula) throws IncorrectFormulaException, LexicalException {
+        FormulaTree formulaTree = null;
+        FormulaStore store = formulaStore;
+        if (store != null) {
+            boolean[] optimized = new boolean[1];
+            formulaTree = store.load(formula, optimized);
+            if (formulaTree != null && optimizing && !optimized[0]) {
+                formulaTree = FormulaOptimizer.optimize(formulaTree);
+            }
+        }
+        if (formulaTree == null) {
+            formulaTree = FormulaTree.createFormulaTree(LexicalAnalyzer.tokenize(formula));
+            if (optimizing) {
+                formulaTree = FormulaOptimizer.optimize(formulaTree);
+            }
+        }
+        if (engine == Engine.BYTECODE) {
+            formulaTree.compileToBytecode();
+        }
         return formulaTree;
 
     }
@@ -42,16 +236,264 @@ public class Calculator {
      * @throws ArithmeticException
      */
     public double calculate(String formula, HashMap<String, Double> variables) throws IncorrectFormulaException, LexicalException, ArithmeticException {
-        FormulaTree formulaTree = createOrReturnFormulaTree(formula);
+        long start = Metrics.start();
+        try {
+            FormulaTree formulaTree = createOrReturnFormulaTree(formula);
 
-        return calculateNodes(formulaTree.firstNode, variables);
+            return calculateFormulaThree(formulaTree, variables);
+        } catch (IncorrectFormulaException | LexicalException | RuntimeException e) {
+            CALCULATE_TIMER.error(e);
+            throw e;
+        } finally {
+            CALCULATE_TIMER.stop(start);
+        }
     }
 
+    /**
+     * Map based adapter, resolves variables into slots of formula on every call
+     *
+     * @param formulaTree Tree of formula
+     * @param variables   Variables for formula
+     * @return Calculated value
+     * @throws IncorrectFormulaException
+     * @throws LexicalException
+     * @throws ArithmeticException
+     */
     public double calculateFormulaThree(FormulaTree formulaTree, HashMap<String, Double> variables) throws IncorrectFormulaException, LexicalException, ArithmeticException {
+        if (engine == Engine.TREE) {
+            return calculateNodes(formulaTree.firstNode, variables);
+        }
+        if (engine == Engine.TIERED && !formulaTree.isCompiledToBytecode()) {
+            countEvaluations(formulaTree, 1);
+            return calculateNodes(formulaTree.firstNode, variables);
+        }
+        return calculateSlots(formulaTree, formulaTree.compile().bindVariables(variables));
+    }
 
-        return calculateNodes(formulaTree.firstNode, variables);
+    /**
+     * @param formulaTree Tree of formula
+     * @param bindings    Values of variables, created by {@link FormulaTree#newBindings()}
+     * @return Calculated value
+     * @throws IncorrectFormulaException
+     * @throws ArithmeticException
+     */
+    public double calculateFormulaThree(FormulaTree formulaTree, Bindings bindings) throws IncorrectFormulaException, ArithmeticException {
+        long start = Metrics.start();
+        try {
+            return calculateFormulaThree(formulaTree, bindings.values());
+        } catch (IncorrectFormulaException | RuntimeException e) {
+            EVALUATE_TIMER.error(e);
+            throw e;
+        } finally {
+            EVALUATE_TIMER.stop(start);
+        }
+    }
+
+    /**
+     * @param formulaTree Tree of formula
+     * @param values      Values of variables in slots, see {@link FormulaTree#getVariableSlot(String)}
+     * @return Calculated value
+     * @throws IncorrectFormulaException
+     * @throws ArithmeticException
+     */
+    public double calculateFormulaThree(FormulaTree formulaTree, double[] values) throws IncorrectFormulaException, ArithmeticException {
+        String[] variableNames = formulaTree.compile().variableNames;
+        if (values.length < variableNames.length) {
+            throw new IncorrectFormulaException("Argument " + "\"" + variableNames[values.length] + "\" is not set");
+        }
+        if (engine == Engine.TREE) {
+            HashMap<String, Double> variables = new HashMap<>();
+            for (int slot = 0; slot < variableNames.length; slot++) {
+                variables.put(variableNames[slot], values[slot]);
+            }
+            return calculateNodes(formulaTree.firstNode, variables);
+        }
+        return calculateSlots(formulaTree, values);
     }
 
+    /**
+     * Calculates formula for every value of one variable, formula must not use other variables
+     *
+     * @param formulaTree      Tree of formula
+     * @param variableName     Name of variable taking values from column
+     * @param column           Values of variable
+     * @param out              Results, at least column.length long
+     * @param zeroDivisionMode Throw ArithmeticException or write NaN on zero division
+     * @throws IncorrectFormulaException Formula uses other variables
+     * @throws ArithmeticException       Zero division in THROW mode
+     */
+    public void calculateBatch(FormulaTree formulaTree, String variableName, double[] column, double[] out, ZeroDivisionMode zeroDivisionMode) throws IncorrectFormulaException, ArithmeticException {
+        int variableSlot = formulaTree.getVariableSlot(variableName);
+        Bindings bindings = formulaTree.newBindings();
+        if (variableSlot != -1) {
+            bindings.set(variableSlot, 0);
+        }
+        calculateBatch(formulaTree, bindings.values(), variableSlot, column, out, zeroDivisionMode);
+    }
+
+    /**
+     * Calculates formula for every value of one variable, evaluating it operator by operator over the whole column
+     *
+     * @param formulaTree      Tree of formula
+     * @param values           Values of other variables in slots
+     * @param variableSlot     Slot of variable taking values from column, see {@link FormulaTree#getVariableSlot(String)}
+     * @param column           Values of variable
+     * @param out              Results, at least column.length long
+     * @param zeroDivisionMode Throw ArithmeticException or write NaN on zero division
+     * @throws IncorrectFormulaException Variable is not set
+     * @throws ArithmeticException       Zero division in THROW mode
+     */
+    public void calculateBatch(FormulaTree formulaTree, double[] values, int variableSlot, double[] column, double[] out, ZeroDivisionMode zeroDivisionMode) throws IncorrectFormulaException, ArithmeticException {
+        CompiledFormula compiledFormula = formulaTree.compile();
+        if (values.length < compiledFormula.variableNames.length) {
+            throw new IncorrectFormulaException("Argument " + "\"" + compiledFormula.variableNames[values.length] + "\" is not set");
+        }
+        if (out.length < column.length) {
+            throw new IllegalArgumentException("Output is shorter than column: " + out.length + " < " + column.length);
+        }
+        if (engine == Engine.TIERED) {
+            countEvaluations(formulaTree, column.length);
+        }
+        compiledFormula.evaluateBatch(values, variableSlot, column, out, zeroDivisionMode);
+    }
+
+    /**
+     * Evaluates many formulas in parallel on common ForkJoinPool
+     *
+     * @see #calculateAll(FormulaTree[], Bindings[], double[], ZeroDivisionMode, ForkJoinPool)
+     */
+    public void calculateAll(FormulaTree[] formulaTrees, Bindings[] bindings, double[] out, ZeroDivisionMode zeroDivisionMode) throws IncorrectFormulaException, ArithmeticException {
+        calculateAll(formulaTrees, bindings, out, zeroDivisionMode, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Evaluates formula i with bindings i for every i, pairs are split between tasks of pool.
+     * The same formula or bindings may appear in many pairs, bindings must not be changed until this returns
+     *
+     * @param formulaTrees     Trees of formulas
+     * @param bindings         Values of variables of every formula, created by {@link FormulaTree#newBindings()}
+     * @param out              Results, at least formulaTrees.length long
+     * @param zeroDivisionMode Throw ArithmeticException or write NaN on zero division
+     * @param pool             Pool evaluating formulas
+     * @throws IncorrectFormulaException Variable of some formula is not set
+     * @throws ArithmeticException       Zero division in THROW mode
+     */
+    public void calculateAll(FormulaTree[] formulaTrees, Bindings[] bindings, double[] out, ZeroDivisionMode zeroDivisionMode, ForkJoinPool pool) throws IncorrectFormulaException, ArithmeticException {
+        if (bindings.length != formulaTrees.length) {
+            throw new IllegalArgumentException("Number of bindings differs from number of formulas: " + bindings.length + " != " + formulaTrees.length);
+        }
+        if (out.length < formulaTrees.length) {
+            throw new IllegalArgumentException("Output is shorter than formulas: " + out.length + " < " + formulaTrees.length);
+        }
+        try {
+            pool.invoke(new EvaluationTask(formulaTrees, bindings, out, zeroDivisionMode, 0, formulaTrees.length));
+        } catch (RuntimeException e) {
+            // Pool may rethrow a copy of exception of task, the checked exception is its cause
+            for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+                if (cause instanceof IncorrectFormulaException incorrectFormulaException) {
+                    throw incorrectFormulaException;
+                }
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Evaluates pairs in [from, to), halving range until it is small enough
+     */
+    private class EvaluationTask extends RecursiveAction {
+        private final FormulaTree[] formulaTrees;
+        private final Bindings[] bindings;
+        private final double[] out;
+        private final ZeroDivisionMode zeroDivisionMode;
+        private final int from;
+        private final int to;
+
+        EvaluationTask(FormulaTree[] formulaTrees, Bindings[] bindings, double[] out, ZeroDivisionMode zeroDivisionMode, int from, int to) {
+            this.formulaTrees = formulaTrees;
+            this.bindings = bindings;
+            this.out = out;
+            this.zeroDivisionMode = zeroDivisionMode;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > EVALUATIONS_PER_TASK) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new EvaluationTask(formulaTrees, bindings, out, zeroDivisionMode, from, middle),
+                        new EvaluationTask(formulaTrees, bindings, out, zeroDivisionMode, middle, to));
+                return;
+            }
+            for (int i = from; i < to; i++) {
+                try {
+                    out[i] = calculateFormulaThree(formulaTrees[i], bindings[i].values());
+                } catch (ArithmeticException e) {
+                    if (zeroDivisionMode == ZeroDivisionMode.THROW) {
+                        throw e;
+                    }
+                    out[i] = Double.NaN;
+                } catch (IncorrectFormulaException e) {
+                    throw new UndeclaredThrowableException(e);
+                }
+            }
+        }
+    }
+
+    private double calculateSlots(FormulaTree formulaTree, double[] values) {
+        if (engine == Engine.BYTECODE) {
+            return formulaTree.compileToBytecode().eval(values);
+        }
+        if (engine == Engine.TIERED) {
+            countEvaluations(formulaTree, 1);
+            // Volatile read, either interpreter or complete compiled class is used
+            FormulaFunction function = formulaTree.getCompiledFunction();
+            if (function != null) {
+                return function.eval(values);
+            }
+        }
+        return calculateCompiled(formulaTree.compile(), values);
+    }
+
+    /**
+     * Counts evaluations of formula and schedules its compilation once it becomes hot
+     */
+    private void countEvaluations(FormulaTree formulaTree, long count) {
+        if (formulaTree.countEvaluations(count, promotionThreshold)) {
+            Compiler.EXECUTOR.execute(() -> {
+                formulaTree.compileToBytecode();
+                promotions.increment();
+            });
+        }
+    }
+
+    /**
+     * Background thread compiling hot formulas of all TIERED calculators, started on first promotion
+     */
+    private static class Compiler {
+        static final ExecutorService EXECUTOR = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "formula-compiler");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Evaluates compiled postfix program on reusable stack
+     *
+     * @param compiledFormula Compiled formula
+     * @param values          Values of variables in slots
+     * @return Result for formula with given variables
+     */
+    private double calculateCompiled(CompiledFormula compiledFormula, double[] values) {
+        double[] stack = stacks.get();
+        if (stack.length < compiledFormula.getStackSize()) {
+            stack = new double[compiledFormula.getStackSize()];
+            stacks.set(stack);
+        }
+        return compiledFormula.evaluate(values, stack);
+    }
 
     /**
      * Recursively calculates the result of a mathematical expression represented as a tree of nodes.
@@ -0,0 +1,362 @@
+package gfl.calculator;
+
+import gfl.exceptions.IncorrectFormulaException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Flat postfix (reverse polish) form of FormulaTree, evaluated by a stack machine
+ */
+public class CompiledFormula {
+
+    // Opcodes, PUSH_CONSTANT and LOAD_VARIABLE are followed by the index of their operand
+    static final int PUSH_CONSTANT = 0;
+    static final int LOAD_VARIABLE = 1;
+    static final int ADD = 2;
+    static final int SUBTRACT = 3;
+    static final int MULTIPLY = 4;
+    static final int DIVIDE = 5;
+    static final int NEGATE = 6;
+    // Shared subexpressions: STORE_TEMPORARY copies top of stack into temporary slot, LOAD_TEMPORARY pushes it back
+    static final int STORE_TEMPORARY = 7;
+    static final int LOAD_TEMPORARY = 8;
+
+    final int[] code;
+    final double[] constants;
+    final String[] variableNames;
+    final int maxStackDepth;
+    // Number of temporary slots, stored in the stack after maxStackDepth
+    final int temporaryCount;
+
+    // Number of points evaluated at once by batch evaluation, columns of this size stay in L1/L2 cache
+    static final int BATCH_CHUNK_SIZE = 512;
+
+    private CompiledFormula(int[] code, double[] constants, String[] variableNames, int maxStackDepth, int temporaryCount) {
+        this.code = code;
+        this.constants = constants;
+        this.variableNames = variableNames;
+        this.maxStackDepth = maxStackDepth;
+        this.temporaryCount = temporaryCount;
+    }
+
+    /**
+     * Compiles tree into postfix program. Nodes that are used more than once in the tree (see {@link NodeInterner})
+     * are computed once and then loaded from temporary slot
+     *
+     * @param formulaTree Tree of formula
+     * @return Compiled formula
+     */
+    static CompiledFormula compile(FormulaTree formulaTree) {
+        Compiler compiler = new Compiler();
+        compiler.countUses(formulaTree.firstNode);
+        compiler.emitNode(formulaTree.firstNode);
+        return new CompiledFormula(
+                Arrays.copyOf(compiler.code, compiler.codeLength),
+                Arrays.copyOf(compiler.constants, compiler.constantsLength),
+                compiler.variableNames.toArray(new String[0]),
+                compiler.maxDepth,
+                compiler.temporaryCount);
+    }
+
+    /**
+     * @return Maximum number of values on stack while formula is evaluated
+     */
+    public int getMaxStackDepth() {
+        return maxStackDepth;
+    }
+
+    /**
+     * @return Length of stack array needed to evaluate formula, including temporary slots of shared subexpressions
+     */
+    public int getStackSize() {
+        return maxStackDepth + temporaryCount;
+    }
+
+    /**
+     * @return Names of variables, index of name is the slot of variable in array of values
+     */
+    public String[] getVariableNames() {
+        return variableNames.clone();
+    }
+
+    /**
+     * Puts values of variables into slots of this formula
+     *
+     * @param variables Variables for formula
+     * @return Values of variables in order of {@link #getVariableNames()}
+     * @throws IncorrectFormulaException Variable is not set
+     */
+    public double[] bindVariables(Map<String, Double> variables) throws IncorrectFormulaException {
+        double[] values = new double[variableNames.length];
+        for (int i = 0; i < variableNames.length; i++) {
+            Double value = variables.get(variableNames[i]);
+            if (value == null) {
+                throw new IncorrectFormulaException("Argument " + "\"" + variableNames[i] + "\" is not set");
+            }
+            values[i] = value;
+        }
+        return values;
+    }
+
+    /**
+     * Evaluates program on given stack
+     *
+     * @param variables Variables for formula
+     * @param stack     Stack at least {@link #getStackSize()} long, its content is overwritten
+     * @return Result for formula with given variables
+     * @throws IncorrectFormulaException Variable is not set
+     * @throws ArithmeticException       Zero division
+     */
+    public double evaluate(Map<String, Double> variables, double[] stack) throws IncorrectFormulaException, ArithmeticException {
+        return evaluate(bindVariables(variables), stack);
+    }
+
+    /**
+     * Evaluates program on given stack
+     *
+     * @param values Values of variables in order of {@link #getVariableNames()}
+     * @param stack  Stack at least {@link #getStackSize()} long, its content is overwritten
+     * @return Result for formula with given variables
+     * @throws ArithmeticException Zero division
+     */
+    public double evaluate(double[] values, double[] stack) throws ArithmeticException {
+        final int[] code = this.code;
+        final double[] constants = this.constants;
+        int top = -1;
+        int pc = 0;
+
+        while (pc < code.length) {
+            switch (code[pc++]) {
+                case PUSH_CONSTANT -> stack[++top] = constants[code[pc++]];
+                case LOAD_VARIABLE -> stack[++top] = values[code[pc++]];
+                case ADD -> {
+                    top--;
+                    stack[top] = stack[top] + stack[top + 1];
+                }
+                case SUBTRACT -> {
+                    top--;
+                    stack[top] = stack[top] - stack[top + 1];
+                }
+                case MULTIPLY -> {
+                    top--;
+                    stack[top] = stack[top] * stack[top + 1];
+                }
+                case DIVIDE -> {
+                    top--;
+                    stack[top] = divide(stack[top], stack[top + 1]);
+                }
+                case NEGATE -> stack[top] = -stack[top];
+                case STORE_TEMPORARY -> stack[maxStackDepth + code[pc++]] = stack[top];
+                case LOAD_TEMPORARY -> {
+                    int temporary = maxStackDepth + code[pc++];
+                    stack[++top] = stack[temporary];
+                }
+            }
+        }
+        return stack[top];
+    }
+
+    /**
+     * Evaluates program over a column of values of one variable, operator by operator over whole chunks of column
+     *
+     * @param values           Values of variables in slots, value in variableSlot is ignored
+     * @param variableSlot     Slot of variable taking values from column, -1 if formula does not use it
+     * @param column           Values of variable
+     * @param out              Results, at least column.length long
+     * @param zeroDivisionMode What to do on zero division
+     * @throws ArithmeticException Zero division in THROW mode
+     */
+    public void evaluateBatch(double[] values, int variableSlot, double[] column, double[] out, ZeroDivisionMode zeroDivisionMode) throws ArithmeticException {
+        final int[] code = this.code;
+        final double[] constants = this.constants;
+        final boolean throwOnZeroDivision = zeroDivisionMode == ZeroDivisionMode.THROW;
+        final double[][] stack = new double[getStackSize()][Math.min(BATCH_CHUNK_SIZE, column.length)];
+
+        for (int chunkStart = 0; chunkStart < column.length; chunkStart += BATCH_CHUNK_SIZE) {
+            final int length = Math.min(BATCH_CHUNK_SIZE, column.length - chunkStart);
+            int top = -1;
+            int pc = 0;
+
+            while (pc < code.length) {
+                switch (code[pc++]) {
+                    case PUSH_CONSTANT -> Arrays.fill(stack[++top], 0, length, constants[code[pc++]]);
+                    case LOAD_VARIABLE -> {
+                        int slot = code[pc++];
+                        if (slot == variableSlot) {
+                            System.arraycopy(column, chunkStart, stack[++top], 0, length);
+                        } else {
+                            Arrays.fill(stack[++top], 0, length, values[slot]);
+                        }
+                    }
+                    case ADD -> {
+                        double[] first = stack[--top];
+                        double[] second = stack[top + 1];
+                        for (int i = 0; i < length; i++) {
+                            first[i] = first[i] + second[i];
+                        }
+                    }
+                    case SUBTRACT -> {
+                        double[] first = stack[--top];
+                        double[] second = stack[top + 1];
+                        for (int i = 0; i < length; i++) {
+                            first[i] = first[i] - second[i];
+                        }
+                    }
+                    case MULTIPLY -> {
+                        double[] first = stack[--top];
+                        double[] second = stack[top + 1];
+                        for (int i = 0; i < length; i++) {
+                            first[i] = first[i] * second[i];
+                        }
+                    }
+                    case DIVIDE -> {
+                        double[] first = stack[--top];
+                        double[] second = stack[top + 1];
+                        if (throwOnZeroDivision) {
+                            // Separate check loop, so the division loop stays branch free
+                            for (int i = 0; i < length; i++) {
+                                if (second[i] == 0.) {
+                                    divide(first[i], second[i]);
+                                }
+                            }
+                            for (int i = 0; i < length; i++) {
+                                first[i] = first[i] / second[i];
+                            }
+                        } else {
+                            for (int i = 0; i < length; i++) {
+                                first[i] = second[i] == 0. ? Double.NaN : first[i] / second[i];
+                            }
+                        }
+                    }
+                    case NEGATE -> {
+                        double[] first = stack[top];
+                        for (int i = 0; i < length; i++) {
+                            first[i] = -first[i];
+                        }
+                    }
+                    case STORE_TEMPORARY -> System.arraycopy(stack[top], 0, stack[maxStackDepth + code[pc++]], 0, length);
+                    case LOAD_TEMPORARY -> {
+                        int temporary = maxStackDepth + code[pc++];
+                        System.arraycopy(stack[temporary], 0, stack[++top], 0, length);
+                    }
+                }
+            }
+            System.arraycopy(stack[top], 0, out, chunkStart, length);
+        }
+    }
+
+    static double divide(double firstValue, double secondValue) {
+        if (secondValue == 0.) {
+            throw new ArithmeticException("Zero division at " + firstValue + "/" + secondValue);
+        }
+        return firstValue / secondValue;
+    }
+
+    /**
+     * Walks tree in post order and writes program
+     */
+    private static class Compiler {
+        int[] code = new int[16];
+        int codeLength;
+        double[] constants = new double[8];
+        int constantsLength;
+        ArrayList<String> variableNames = new ArrayList<>();
+        int depth;
+        int maxDepth;
+        int temporaryCount;
+        // Number of parents of every node reachable from root, children of a node are counted once
+        IdentityHashMap<Node, Integer> uses = new IdentityHashMap<>();
+        // Temporary slot of shared node already emitted
+        IdentityHashMap<Node, Integer> temporaries = new IdentityHashMap<>();
+
+        void countUses(Node node) {
+            if (node == null) {
+                return;
+            }
+            Integer count = uses.get(node);
+            uses.put(node, count == null ? 1 : count + 1);
+            if (count == null) {
+                countUses(node.left);
+                countUses(node.right);
+            }
+        }
+
+        void emitNode(Node node) {
+            Integer temporary = temporaries.get(node);
+            if (temporary != null) {
+                emit(LOAD_TEMPORARY, temporary);
+                push();
+                return;
+            }
+
+            emitNodeOperation(node);
+
+            // Leaves are as cheap to load as temporaries
+            boolean isShared = uses.get(node) > 1 && (node.left != null || node.right != null);
+            if (isShared) {
+                temporary = temporaryCount++;
+                temporaries.put(node, temporary);
+                emit(STORE_TEMPORARY, temporary);
+            }
+        }
+
+        private void emitNodeOperation(Node node) {
+            TokenName nodeTokenName = node.getTokenName();
+            switch (nodeTokenName) {
+                case NUMBER -> emitConstant(node.getValue());
+                case VARIABLE -> {
+                    int index = variableNames.indexOf(node.getVariableName());
+                    if (index == -1) {
+                        index = variableNames.size();
+                        variableNames.add(node.getVariableName());
+                    }
+                    emit(LOAD_VARIABLE, index);
+                    push();
+                }
+                case OPERATOR_PLUS -> emitBinary(node, ADD);
+                case OPERATOR_MINUS -> emitBinary(node, SUBTRACT);
+                case OPERATOR_MULTIPLY -> emitBinary(node, MULTIPLY);
+                case OPERATOR_DIVIDE -> emitBinary(node, DIVIDE);
+                case UNARY_MINUS -> {
+                    emitNode(node.right);
+                    emit(NEGATE);
+                }
+                // Tree interpreter returns 0 for any other node
+                default -> emitConstant(0);
+            }
+        }
+
+        private void emitBinary(Node node, int opcode) {
+            emitNode(node.left);
+            emitNode(node.right);
+            emit(opcode);
+            depth--;
+        }
+
+        private void emitConstant(double value) {
+            if (constantsLength == constants.length) {
+                constants = Arrays.copyOf(constants, constantsLength * 2);
+            }
+            constants[constantsLength] = value;
+            emit(PUSH_CONSTANT, constantsLength++);
+            push();
+        }
+
+        private void push() {
+            depth++;
+            maxDepth = Math.max(maxDepth, depth);
+        }
+
+        private void emit(int... words) {
+            if (codeLength + words.length > code.length) {
+                code = Arrays.copyOf(code, code.length * 2);
+            }
+            for (int word : words) {
+                code[codeLength++] = word;
+            }
+        }
+    }
+}
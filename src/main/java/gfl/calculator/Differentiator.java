@@ -0,0 +1,95 @@
+package gfl.calculator;
+
+/**
+ * Symbolic differentiation of FormulaTree. Derivative is built from the same operators with sum, product and
+ * quotient rules (chain rule through unary minus) and simplified by {@link FormulaOptimizer}. Derivatives of
+ * constant subtrees are exactly zero, so terms multiplied by them are left out instead of being built as 0*x
+ */
+abstract public class Differentiator {
+
+    /**
+     * @param formulaTree  Formula to differentiate
+     * @param variableName Variable to differentiate by
+     * @return Simplified tree of derivative
+     */
+    public static FormulaTree derivative(FormulaTree formulaTree, String variableName) {
+        Node derivative = differentiate(formulaTree.firstNode, variableName);
+        if (derivative == null) {
+            derivative = number(0);
+        }
+        return FormulaOptimizer.optimize(new FormulaTree(derivative));
+    }
+
+    /**
+     * @return Derivative of subtree, null if it is zero
+     */
+    private static Node differentiate(Node node, String variableName) {
+        switch (node.getTokenName()) {
+            case NUMBER -> {
+                return null;
+            }
+            case VARIABLE -> {
+                return node.getVariableName().equals(variableName) ? number(1) : null;
+            }
+            case UNARY_MINUS -> {
+                return negate(differentiate(node.right, variableName));
+            }
+            case OPERATOR_PLUS -> {
+                return add(differentiate(node.left, variableName), differentiate(node.right, variableName));
+            }
+            case OPERATOR_MINUS -> {
+                return subtract(differentiate(node.left, variableName), differentiate(node.right, variableName));
+            }
+            case OPERATOR_MULTIPLY -> {
+                // (uv)' = u'v + uv'
+                Node leftDerivative = differentiate(node.left, variableName);
+                Node rightDerivative = differentiate(node.right, variableName);
+                return add(multiply(leftDerivative, node.right), multiply(node.left, rightDerivative));
+            }
+            case OPERATOR_DIVIDE -> {
+                // (u/v)' = u'/v when v is constant, (u'v - uv') / (v*v) otherwise
+                Node leftDerivative = differentiate(node.left, variableName);
+                Node rightDerivative = differentiate(node.right, variableName);
+                if (rightDerivative == null) {
+                    return leftDerivative == null ? null : binary(TokenName.OPERATOR_DIVIDE, leftDerivative, node.right);
+                }
+                Node numerator = subtract(multiply(leftDerivative, node.right), multiply(node.left, rightDerivative));
+                return binary(TokenName.OPERATOR_DIVIDE, numerator, binary(TokenName.OPERATOR_MULTIPLY, node.right, node.right));
+            }
+            default -> {
+                // Tree interpreter evaluates any other node to constant 0
+                return null;
+            }
+        }
+    }
+
+    private static Node add(Node first, Node second) {
+        if (first == null) return second;
+        if (second == null) return first;
+        return binary(TokenName.OPERATOR_PLUS, first, second);
+    }
+
+    private static Node subtract(Node first, Node second) {
+        if (second == null) return first;
+        if (first == null) return negate(second);
+        return binary(TokenName.OPERATOR_MINUS, first, second);
+    }
+
+    private static Node multiply(Node first, Node second) {
+        if (first == null || second == null) return null;
+        return binary(TokenName.OPERATOR_MULTIPLY, first, second);
+    }
+
+    private static Node negate(Node node) {
+        if (node == null) return null;
+        return NodeInterner.intern(new Node(TokenName.UNARY_MINUS, null, node));
+    }
+
+    private static Node binary(TokenName operator, Node left, Node right) {
+        return NodeInterner.intern(new Node(operator, left, right));
+    }
+
+    private static Node number(double value) {
+        return NodeInterner.intern(new Node(TokenName.NUMBER, value));
+    }
+}
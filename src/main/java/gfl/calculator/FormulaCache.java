@@ -0,0 +1,247 @@
+package gfl.calculator;
+
+import gfl.exceptions.IncorrectFormulaException;
+import gfl.exceptions.LexicalException;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+
+/**
+ * Bounded thread-safe storage of FormulaTrees. Formulas are spread over segments, each segment evicts
+ * its least recently used formula when it is full. Concurrent misses on the same formula load it only once
+ */
+public class FormulaCache {
+
+    /**
+     * Creates FormulaTree for formula that is not in cache
+     */
+    @FunctionalInterface
+    public interface Loader {
+        FormulaTree load(String formula) throws IncorrectFormulaException, LexicalException;
+    }
+
+    static final int MAX_SEGMENTS = 16;
+
+    private final int maximumSize;
+    private final Segment[] segments;
+    // Formulas being loaded right now, other threads wait for them instead of loading again
+    private final ConcurrentHashMap<String, FutureTask<FormulaTree>> loading = new ConcurrentHashMap<>();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * @param maximumSize Maximum number of formulas kept in cache
+     */
+    public FormulaCache(int maximumSize) {
+        if (maximumSize < 1) {
+            throw new IllegalArgumentException("Maximum size must be positive: " + maximumSize);
+        }
+        this.maximumSize = maximumSize;
+
+        // Power of two, so segment is picked with a mask, and never more segments than formulas
+        int segmentCount = Integer.highestOneBit(Math.min(MAX_SEGMENTS, maximumSize));
+        segments = new Segment[segmentCount];
+        for (int i = 0; i < segmentCount; i++) {
+            // First segments take the remainder, so capacities sum up to maximumSize
+            int capacity = maximumSize / segmentCount + (i < maximumSize % segmentCount ? 1 : 0);
+            segments[i] = new Segment(capacity);
+        }
+    }
+
+    /**
+     * Returns FormulaTree of formula, loading it if it is not present in cache
+     *
+     * @param formula Math formula
+     * @param loader  Creates FormulaTree on miss
+     * @return Tree of formula
+     * @throws IncorrectFormulaException
+     * @throws LexicalException
+     */
+    public FormulaTree get(String formula, Loader loader) throws IncorrectFormulaException, LexicalException {
+        Segment segment = segmentFor(formula);
+        FormulaTree formulaTree = segment.read(formula);
+        if (formulaTree != null) {
+            hits.increment();
+            return formulaTree;
+        }
+
+        FutureTask<FormulaTree> task = new FutureTask<>(() -> {
+            // Other thread could have finished loading between read and registration of this task
+            FormulaTree loaded = segment.read(formula);
+            if (loaded != null) {
+                hits.increment();
+                return loaded;
+            }
+            misses.increment();
+            loaded = loader.load(formula);
+            segment.write(formula, loaded);
+            return loaded;
+        });
+
+        FutureTask<FormulaTree> runningTask = loading.putIfAbsent(formula, task);
+        if (runningTask == null) {
+            try {
+                task.run();
+            } finally {
+                loading.remove(formula, task);
+            }
+        } else {
+            hits.increment();
+            task = runningTask;
+        }
+        return await(task);
+    }
+
+    /**
+     * @param formula Math formula
+     * @return FormulaTree of formula or null if it is not in cache
+     */
+    public FormulaTree getIfPresent(String formula) {
+        FormulaTree formulaTree = segmentFor(formula).read(formula);
+        if (formulaTree != null) {
+            hits.increment();
+        }
+        return formulaTree;
+    }
+
+    /**
+     * Removes all formulas, counters are kept
+     */
+    public void invalidateAll() {
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                segment.clear();
+            }
+        }
+    }
+
+    /**
+     * @return Number of formulas in cache
+     */
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Passes every cached formula with its tree to action, formulas are copied segment by segment,
+     * so action may use this cache
+     *
+     * @param action Receives formula and its tree
+     */
+    public void forEach(BiConsumer<String, FormulaTree> action) {
+        for (Segment segment : segments) {
+            HashMap<String, FormulaTree> copy;
+            synchronized (segment) {
+                copy = new HashMap<>(segment);
+            }
+            copy.forEach(action);
+        }
+    }
+
+    public int getMaximumSize() {
+        return maximumSize;
+    }
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    /**
+     * @return Share of requests answered without loading, 1 if there were no requests
+     */
+    public double getHitRatio() {
+        long hitCount = hits.sum();
+        long requestCount = hitCount + misses.sum();
+        return requestCount == 0 ? 1. : (double) hitCount / requestCount;
+    }
+
+    private Segment segmentFor(String formula) {
+        int hash = formula.hashCode();
+        // Spread higher bits, like HashMap does
+        hash ^= hash >>> 16;
+        return segments[hash & (segments.length - 1)];
+    }
+
+    private static FormulaTree await(FutureTask<FormulaTree> task) throws IncorrectFormulaException, LexicalException {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return task.get();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IncorrectFormulaException incorrectFormulaException) {
+                throw incorrectFormulaException;
+            }
+            if (cause instanceof LexicalException lexicalException) {
+                throw lexicalException;
+            }
+            if (cause instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            if (cause instanceof Error error) {
+                throw error;
+            }
+            throw new IllegalStateException(cause);
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Access ordered map that drops its eldest entry when it is over capacity
+     */
+    private class Segment extends LinkedHashMap<String, FormulaTree> {
+        private final int capacity;
+
+        Segment(int capacity) {
+            super(16, 0.75f, true);
+            this.capacity = capacity;
+        }
+
+        synchronized FormulaTree read(String formula) {
+            return get(formula);
+        }
+
+        synchronized void write(String formula, FormulaTree formulaTree) {
+            put(formula, formulaTree);
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, FormulaTree> eldest) {
+            if (size() > capacity) {
+                evictions.increment();
+                return true;
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,15 @@
+package gfl.calculator;
+
+/**
+ * Formula compiled into a JVM class
+ */
+@FunctionalInterface
+public interface FormulaFunction {
+
+    /**
+     * @param variables Values of variables, in order of {@link CompiledFormula#getVariableNames()}
+     * @return Result for formula with given variables
+     * @throws ArithmeticException Zero division
+     */
+    double eval(double[] variables) throws ArithmeticException;
+}
@@ -0,0 +1,121 @@
+package gfl.calculator;
+
+/**
+ * Simplifies FormulaTree before evaluation: folds constant subtrees and applies identities that are exact in IEEE-754
+ * (x*1, 1*x, x/1, x-0, --x). x+0 is not rewritten, -0+0 is +0 so it would change sign of zero results.
+ * Division by constant zero is never folded, so it still throws when evaluated
+ */
+abstract public class FormulaOptimizer {
+
+    /**
+     * Creates optimized copy of tree, original tree is not changed
+     *
+     * @param formulaTree Tree to optimize
+     * @return Optimized tree, {@link FormulaTree#getRemovedNodeCount()} tells how many nodes were removed
+     */
+    public static FormulaTree optimize(FormulaTree formulaTree) {
+        Node optimized = optimizeNode(formulaTree.firstNode);
+        return new FormulaTree(optimized, formulaTree.removedNodeCount + countNodes(formulaTree.firstNode) - countNodes(optimized));
+    }
+
+    /**
+     * @param node Root of subtree
+     * @return Number of nodes in subtree, shared nodes are counted once per use
+     */
+    static int countNodes(Node node) {
+        if (node == null) {
+            return 0;
+        }
+        return 1 + countNodes(node.left) + countNodes(node.right);
+    }
+
+    private static Node optimizeNode(Node node) {
+        TokenName nodeTokenName = node.getTokenName();
+
+        if (nodeTokenName == TokenName.UNARY_MINUS) {
+            Node right = optimizeNode(node.right);
+            // -c
+            if (right.getTokenName() == TokenName.NUMBER) {
+                return NodeInterner.intern(new Node(TokenName.NUMBER, -right.getValue()));
+            }
+            // --x
+            if (right.getTokenName() == TokenName.UNARY_MINUS) {
+                return right.right;
+            }
+            return right == node.right ? node : NodeInterner.intern(new Node(nodeTokenName, null, right));
+        }
+
+        if (!TokenName.isBinaryOperator(nodeTokenName)) {
+            return node;
+        }
+
+        Node left = optimizeNode(node.left);
+        Node right = optimizeNode(node.right);
+
+        if (isNumber(left) && isNumber(right)) {
+            Double folded = fold(left.getValue(), right.getValue(), nodeTokenName);
+            if (folded != null) {
+                return NodeInterner.intern(new Node(TokenName.NUMBER, folded));
+            }
+        }
+
+        switch (nodeTokenName) {
+            case OPERATOR_MULTIPLY -> {
+                if (isConstant(right, 1.)) {
+                    return left;
+                }
+                if (isConstant(left, 1.)) {
+                    return right;
+                }
+            }
+            case OPERATOR_DIVIDE -> {
+                if (isConstant(right, 1.)) {
+                    return left;
+                }
+            }
+            case OPERATOR_MINUS -> {
+                if (isConstant(right, 0.)) {
+                    return left;
+                }
+            }
+            case OPERATOR_PLUS -> {
+                if (isConstant(right, -0.)) {
+                    return left;
+                }
+                if (isConstant(left, -0.)) {
+                    return right;
+                }
+            }
+        }
+
+        if (left == node.left && right == node.right) {
+            return node;
+        }
+        return NodeInterner.intern(new Node(nodeTokenName, left, right));
+    }
+
+    /**
+     * @return Result of operation on constants or null if it must not be folded
+     */
+    private static Double fold(double firstValue, double secondValue, TokenName binaryOperation) {
+        return switch (binaryOperation) {
+            case OPERATOR_PLUS -> firstValue + secondValue;
+            case OPERATOR_MINUS -> firstValue - secondValue;
+            case OPERATOR_MULTIPLY -> firstValue * secondValue;
+            // Zero division has to throw at evaluation
+            case OPERATOR_DIVIDE -> secondValue == 0. ? null : firstValue / secondValue;
+            default -> null;
+        };
+    }
+
+    private static boolean isNumber(Node node) {
+        return node.getTokenName() == TokenName.NUMBER;
+    }
+
+    /**
+     * Compares bits, so 0 and -0 are different constants
+     */
+    private static boolean isConstant(Node node, double value) {
+        return isNumber(node) && Double.doubleToRawLongBits(node.getValue()) == Double.doubleToRawLongBits(value);
+    }
+}
@@ -0,0 +1,463 @@
+package gfl.calculator;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.CRC32;
+
+/**
+ * Read-only file of parsed formulas keyed by formula string, written by {@link #write(Path, Map, boolean, FormulaStore)}.
+ * File is memory-mapped, a formula is decoded only when it is requested, so opening does not depend on
+ * number of formulas. Trees are stored as postfix programs of their nodes, subexpressions shared in tree are
+ * stored once and referenced.
+ * <p>
+ * Format, big-endian: header {magic, version, entry count, table size, table offset (long), CRC32 of header
+ * and table}, entries {length, CRC32 of rest of entry, formula, flags, removed node count, node count, nodes},
+ * table of (hash of formula, offset of entry) pairs with linear probing. Entry with wrong checksum is treated
+ * as missing, file with wrong header is not opened
+ */
+public class FormulaStore {
+
+    static final int MAGIC = 0x47464C43; // "GFLC"
+    static final int VERSION = 1;
+
+    static final int HEADER_SIZE = 28;
+    static final int SLOT_SIZE = 8;
+    // CRC32, formula length, flags, removed node count and node count of entry with empty formula and program
+    static final int MIN_ENTRY_LENGTH = 4 + 4 + 1 + 4 + 4;
+
+    // Entry flags
+    static final int OPTIMIZED = 1;
+
+    // Node instructions
+    static final byte NUMBER = 1;
+    static final byte VARIABLE = 2;
+    static final byte REFERENCE = 3;
+    static final byte PLUS = 4;
+    static final byte MINUS = 5;
+    static final byte MULTIPLY = 6;
+    static final byte DIVIDE = 7;
+    static final byte NEGATE = 8;
+
+    private final Path path;
+    private final MappedByteBuffer buffer;
+    private final int entryCount;
+    private final int tableSize;
+    private final int tableOffset;
+
+    private final LongAdder loads = new LongAdder();
+    private final LongAdder corruptEntries = new LongAdder();
+
+    private FormulaStore(Path path, MappedByteBuffer buffer, int entryCount, int tableSize, int tableOffset) {
+        this.path = path;
+        this.buffer = buffer;
+        this.entryCount = entryCount;
+        this.tableSize = tableSize;
+        this.tableOffset = tableOffset;
+    }
+
+    /**
+     * Maps file of formulas
+     *
+     * @param path File written by {@link #write(Path, Map, boolean, FormulaStore)}
+     * @return Store reading formulas from file
+     * @throws IOException if file can not be read, has other version or its header is damaged
+     */
+    public static FormulaStore open(Path path) throws IOException {
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_SIZE || channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Not a formula store: " + path);
+            }
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+
+        if (buffer.getInt(0) != MAGIC) {
+            throw new IOException("Not a formula store: " + path);
+        }
+        int version = buffer.getInt(4);
+        if (version != VERSION) {
+            throw new IOException("Formula store " + path + " has version " + version + ", expected " + VERSION);
+        }
+        int entryCount = buffer.getInt(8);
+        int tableSize = buffer.getInt(12);
+        long tableOffset = buffer.getLong(16);
+        if (tableSize < 0 || Integer.bitCount(tableSize) > 1 || tableOffset < HEADER_SIZE
+                || tableOffset + (long) tableSize * SLOT_SIZE != buffer.capacity()) {
+            throw new IOException("Formula store " + path + " is damaged");
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(buffer.slice(0, HEADER_SIZE - 4));
+        crc.update(buffer.slice((int) tableOffset, tableSize * SLOT_SIZE));
+        if ((int) crc.getValue() != buffer.getInt(HEADER_SIZE - 4)) {
+            throw new IOException("Formula store " + path + " is damaged");
+        }
+        return new FormulaStore(path, buffer, entryCount, tableSize, (int) tableOffset);
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    /**
+     * @return Number of formulas in file
+     */
+    public int size() {
+        return entryCount;
+    }
+
+    /**
+     * @return Number of formulas decoded from file
+     */
+    public long getLoadCount() {
+        return loads.sum();
+    }
+
+    /**
+     * @return Number of requested entries with wrong checksum
+     */
+    public long getCorruptEntryCount() {
+        return corruptEntries.sum();
+    }
+
+    /**
+     * Decodes tree of formula, safe to call from many threads
+     *
+     * @param formula Math formula
+     * @return Tree of formula or null if file does not have it or its entry is damaged
+     */
+    public FormulaTree load(String formula) {
+        return load(formula, null);
+    }
+
+    /**
+     * @param optimized Receives whether stored tree was optimized by FormulaOptimizer, may be null
+     */
+    FormulaTree load(String formula, boolean[] optimized) {
+        int offset = find(formula.getBytes(StandardCharsets.UTF_8), hash(formula));
+        if (offset < 0) {
+            return null;
+        }
+        int length = entryLength(offset);
+        if (length < 0 || !isIntact(offset, length)) {
+            corruptEntries.increment();
+            return null;
+        }
+
+        int flags;
+        int removedNodeCount;
+        Node firstNode;
+        try {
+            ByteBuffer entry = buffer.slice(offset + 8, length - 4);
+            entry.position(entry.getInt() + 4);
+            flags = entry.get();
+            removedNodeCount = entry.getInt();
+            firstNode = readNodes(entry);
+        } catch (RuntimeException e) {
+            // Entry with matching checksum but malformed content
+            firstNode = null;
+            flags = 0;
+            removedNodeCount = 0;
+        }
+        if (firstNode == null) {
+            corruptEntries.increment();
+            return null;
+        }
+        if (optimized != null) {
+            optimized[0] = (flags & OPTIMIZED) != 0;
+        }
+        loads.increment();
+        return new FormulaTree(firstNode, removedNodeCount);
+    }
+
+    /**
+     * @return Offset of entry of formula or -1
+     */
+    private int find(byte[] key, int hash) {
+        if (tableSize == 0) {
+            return -1;
+        }
+        int mask = tableSize - 1;
+        for (int probe = 0; probe < tableSize; probe++) {
+            int slot = tableOffset + ((hash + probe) & mask) * SLOT_SIZE;
+            int offset = buffer.getInt(slot + 4);
+            if (offset == 0) {
+                return -1;
+            }
+            if (buffer.getInt(slot) == hash && keyEquals(offset, key)) {
+                return offset;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return Length of entry at offset, it does not count length field itself, or -1 if entry does not fit in file
+     */
+    private int entryLength(int offset) {
+        if (offset < HEADER_SIZE || offset > tableOffset - 4) {
+            return -1;
+        }
+        int length = buffer.getInt(offset);
+        return length >= MIN_ENTRY_LENGTH && length <= tableOffset - offset - 4 ? length : -1;
+    }
+
+    /**
+     * @return true if checksum of entry matches its content
+     */
+    private boolean isIntact(int offset, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(buffer.slice(offset + 8, length - 4));
+        return (int) crc.getValue() == buffer.getInt(offset + 4);
+    }
+
+    private boolean keyEquals(int offset, byte[] key) {
+        // Key is compared before length of entry is checked, so it is bounded by end of entries only
+        if (offset < HEADER_SIZE || offset > tableOffset - 12 || key.length > tableOffset - offset - 12
+                || buffer.getInt(offset + 8) != key.length) {
+            return false;
+        }
+        for (int i = 0; i < key.length; i++) {
+            if (buffer.get(offset + 12 + i) != key[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return Root of decoded tree or null if program is malformed
+     */
+    private static Node readNodes(ByteBuffer entry) {
+        int nodeCount = entry.getInt();
+        ArrayList<Node> decoded = new ArrayList<>(nodeCount);
+        ArrayList<Node> stack = new ArrayList<>();
+        try {
+            for (int i = 0; i < nodeCount; i++) {
+                byte instruction = entry.get();
+                if (instruction == REFERENCE) {
+                    stack.add(decoded.get(entry.getInt()));
+                    continue;
+                }
+                Node node = switch (instruction) {
+                    case NUMBER -> new Node(TokenName.NUMBER, entry.getDouble());
+                    case VARIABLE -> {
+                        byte[] name = new byte[entry.getInt()];
+                        entry.get(name);
+                        yield new Node(TokenName.VARIABLE, new String(name, StandardCharsets.UTF_8));
+                    }
+                    case NEGATE -> new Node(TokenName.UNARY_MINUS, null, stack.remove(stack.size() - 1));
+                    case PLUS, MINUS, MULTIPLY, DIVIDE -> {
+                        Node right = stack.remove(stack.size() - 1);
+                        Node left = stack.remove(stack.size() - 1);
+                        yield new Node(operatorOf(instruction), left, right);
+                    }
+                    default -> null;
+                };
+                if (node == null) {
+                    return null;
+                }
+                node = NodeInterner.intern(node);
+                decoded.add(node);
+                stack.add(node);
+            }
+        } catch (RuntimeException e) {
+            // Index out of bounds or buffer underflow of malformed program
+            return null;
+        }
+        return stack.size() == 1 ? stack.get(0) : null;
+    }
+
+    private static TokenName operatorOf(byte instruction) {
+        return switch (instruction) {
+            case PLUS -> TokenName.OPERATOR_PLUS;
+            case MINUS -> TokenName.OPERATOR_MINUS;
+            case MULTIPLY -> TokenName.OPERATOR_MULTIPLY;
+            default -> TokenName.OPERATOR_DIVIDE;
+        };
+    }
+
+    private static byte instructionOf(TokenName tokenName) {
+        return switch (tokenName) {
+            case OPERATOR_PLUS -> PLUS;
+            case OPERATOR_MINUS -> MINUS;
+            case OPERATOR_MULTIPLY -> MULTIPLY;
+            case OPERATOR_DIVIDE -> DIVIDE;
+            case UNARY_MINUS -> NEGATE;
+            default -> throw new IllegalArgumentException("Node " + tokenName + " can not be stored");
+        };
+    }
+
+    /**
+     * @return Raw bytes of every entry by formula, used to copy entries that were not loaded
+     */
+    private Map<String, byte[]> rawEntries() {
+        LinkedHashMap<String, byte[]> entries = new LinkedHashMap<>();
+        for (int slot = 0; slot < tableSize; slot++) {
+            int offset = buffer.getInt(tableOffset + slot * SLOT_SIZE + 4);
+            int length = offset == 0 ? -1 : entryLength(offset);
+            // Damaged entries are not copied
+            if (length < 0 || !isIntact(offset, length)
+                    || buffer.getInt(offset + 8) < 0 || buffer.getInt(offset + 8) > length - MIN_ENTRY_LENGTH) {
+                continue;
+            }
+            byte[] entry = new byte[4 + length];
+            buffer.get(offset, entry);
+            byte[] key = new byte[buffer.getInt(offset + 8)];
+            buffer.get(offset + 12, key);
+            entries.put(new String(key, StandardCharsets.UTF_8), entry);
+        }
+        return entries;
+    }
+
+    /**
+     * Writes formulas to file, file is replaced atomically
+     *
+     * @param path      File to write
+     * @param trees     Trees by formula
+     * @param optimized Whether trees were optimized by FormulaOptimizer
+     * @param previous  Store whose formulas missing in trees are copied, may be null and may read the same file
+     * @throws IOException if file can not be written
+     */
+    public static void write(Path path, Map<String, FormulaTree> trees, boolean optimized, FormulaStore previous) throws IOException {
+        LinkedHashMap<String, byte[]> entries = new LinkedHashMap<>();
+        if (previous != null) {
+            entries.putAll(previous.rawEntries());
+        }
+        for (Map.Entry<String, FormulaTree> tree : trees.entrySet()) {
+            try {
+                entries.put(tree.getKey(), encode(tree.getKey(), tree.getValue(), optimized));
+            } catch (IllegalArgumentException e) {
+                // Tree with nodes that have no instruction is left out
+            }
+        }
+
+        int tableSize = Integer.highestOneBit(Math.max(1, entries.size() * 2 - 1)) << 1;
+        int[] table = new int[tableSize * 2];
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        for (Map.Entry<String, byte[]> entry : entries.entrySet()) {
+            int offset = HEADER_SIZE + body.size();
+            body.write(entry.getValue());
+            int hash = hash(entry.getKey());
+            int slot = hash & (tableSize - 1);
+            while (table[slot * 2 + 1] != 0) {
+                slot = (slot + 1) & (tableSize - 1);
+            }
+            table[slot * 2] = hash;
+            table[slot * 2 + 1] = offset;
+        }
+
+        long tableOffset = HEADER_SIZE + (long) body.size();
+        if (tableOffset + (long) tableSize * SLOT_SIZE > Integer.MAX_VALUE) {
+            throw new IOException("Too many formulas for one store");
+        }
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC).putInt(VERSION).putInt(entries.size()).putInt(tableSize).putLong(tableOffset);
+        ByteBuffer tableBuffer = ByteBuffer.allocate(tableSize * SLOT_SIZE);
+        tableBuffer.asIntBuffer().put(table);
+        CRC32 crc = new CRC32();
+        crc.update(header.array(), 0, HEADER_SIZE - 4);
+        crc.update(tableBuffer.array());
+        header.putInt((int) crc.getValue());
+
+        Path directory = path.toAbsolutePath().getParent();
+        Path temporary = Files.createTempFile(directory, path.getFileName().toString(), ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            header.flip();
+            ByteBuffer bodyBuffer = ByteBuffer.wrap(body.toByteArray());
+            while (header.hasRemaining() || bodyBuffer.hasRemaining() || tableBuffer.hasRemaining()) {
+                channel.write(new ByteBuffer[]{header, bodyBuffer, tableBuffer});
+            }
+            channel.force(true);
+        } catch (IOException e) {
+            Files.deleteIfExists(temporary);
+            throw e;
+        }
+        Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * @return Entry with its length and checksum
+     */
+    private static byte[] encode(String formula, FormulaTree formulaTree, boolean optimized) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream output = new DataOutputStream(bytes);
+        byte[] key = formula.getBytes(StandardCharsets.UTF_8);
+        output.writeInt(key.length);
+        output.write(key);
+        output.writeByte(optimized ? OPTIMIZED : 0);
+        output.writeInt(formulaTree.removedNodeCount);
+
+        ByteArrayOutputStream program = new ByteArrayOutputStream();
+        int nodeCount = writeNodes(formulaTree.firstNode, new DataOutputStream(program), new IdentityHashMap<>(), new int[1]);
+        output.writeInt(nodeCount);
+        program.writeTo(output);
+        output.flush();
+
+        byte[] rest = bytes.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(rest);
+        ByteBuffer entry = ByteBuffer.allocate(8 + rest.length);
+        entry.putInt(4 + rest.length).putInt((int) crc.getValue()).put(rest);
+        return entry.array();
+    }
+
+    /**
+     * Writes subtree in postfix order, node written before is written as reference to its index
+     *
+     * @return Number of instructions written
+     */
+    private static int writeNodes(Node node, DataOutputStream output, IdentityHashMap<Node, Integer> indexes, int[] nextIndex) throws IOException {
+        Integer index = indexes.get(node);
+        if (index != null) {
+            output.writeByte(REFERENCE);
+            output.writeInt(index);
+            return 1;
+        }
+        int count = 1;
+        switch (node.getTokenName()) {
+            case NUMBER -> {
+                output.writeByte(NUMBER);
+                output.writeDouble(node.getValue());
+            }
+            case VARIABLE -> {
+                byte[] name = node.getVariableName().getBytes(StandardCharsets.UTF_8);
+                output.writeByte(VARIABLE);
+                output.writeInt(name.length);
+                output.write(name);
+            }
+            default -> {
+                byte instruction = instructionOf(node.getTokenName());
+                if (node.right == null || (instruction != NEGATE && node.left == null)) {
+                    throw new IllegalArgumentException("Node " + node.getTokenName() + " misses operand");
+                }
+                if (instruction != NEGATE) {
+                    count += writeNodes(node.left, output, indexes, nextIndex);
+                }
+                count += writeNodes(node.right, output, indexes, nextIndex);
+                output.writeByte(instruction);
+            }
+        }
+        indexes.put(node, nextIndex[0]++);
+        return count;
+    }
+
+    private static int hash(String formula) {
+        int hash = formula.hashCode();
+        return hash ^ (hash >>> 16);
+    }
+}
@@ -1,31 +1,203 @@
 package gfl.calculator;
 
-import java.util.Collections;
+import gfl.metrics.Metrics;
+import gfl.metrics.Timer;
+
 import java.util.List;
 import java.util.Stack;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
- * Binary/Unary Tree of Nodes
+ * Binary/Unary Tree of Nodes. Tree is immutable, caches inside it (compiled forms, derivatives, counters)
+ * are filled lazily and safely, so one tree can be evaluated by many threads at once
  */
 public class FormulaTree {
-    Node firstNode;
+    static final Timer CREATE_FORMULA_TREE_TIMER = Metrics.timer("createFormulaTree");
+
+    final Node firstNode;
+
+    // Number of nodes removed by FormulaOptimizer
+    final int removedNodeCount;
+
+    // Derivatives by variable name, kept as long as this tree is
+    private final ConcurrentHashMap<String, FormulaTree> derivatives = new ConcurrentHashMap<>();
+
+    // Postfix program of this tree, compiled on first use
+    private volatile CompiledFormula compiledFormula;
+    // Hidden class generated from postfix program, compiled on first use
+    private volatile FormulaFunction formulaFunction;
+
+    // Evaluations by tiered Calculator, promotion is requested once
+    private final LongAdder evaluationCount = new LongAdder();
+    private final AtomicBoolean promotionRequested = new AtomicBoolean();
 
     FormulaTree(Node firstNode){
-        this.firstNode=firstNode;
+        this(firstNode, 0);
     };
 
+    FormulaTree(Node firstNode, int removedNodeCount) {
+        this.firstNode = firstNode;
+        this.removedNodeCount = removedNodeCount;
+    }
+
+    /**
+     * Derivative of formula, computed once per variable and cached in this tree
+     * @param variableName Variable to differentiate by
+     * @return Simplified tree of derivative
+     */
+    public FormulaTree derivative(String variableName) {
+        return derivatives.computeIfAbsent(variableName, name -> Differentiator.derivative(this, name));
+    }
+
+    /**
+     * @return Number of nodes in tree
+     */
+    public int getNodeCount() {
+        return FormulaOptimizer.countNodes(firstNode);
+    }
+
+    /**
+     * @return Number of nodes removed by {@link FormulaOptimizer}, 0 if tree was not optimized
+     */
+    public int getRemovedNodeCount() {
+        return removedNodeCount;
+    }
+
+    /**
+     * Compiles tree into flat postfix program, program is created once and reused
+     * @return Compiled formula
+     */
+    public CompiledFormula compile() {
+        // Racing threads may compile twice, both programs are equal and immutable
+        CompiledFormula compiled = compiledFormula;
+        if (compiled == null) {
+            compiled = CompiledFormula.compile(this);
+            compiledFormula = compiled;
+        }
+        return compiled;
+    }
+
+    /**
+     * @return Names of variables of formula, index of name is the slot of variable
+     */
+    public String[] getVariableNames() {
+        return compile().getVariableNames();
+    }
+
+    /**
+     * Resolves variable name to its slot, resolve once and reuse slot for every evaluation
+     * @param variableName Name of variable
+     * @return Slot of variable or -1 if formula does not use it
+     */
+    public int getVariableSlot(String variableName) {
+        String[] variableNames = compile().variableNames;
+        for (int slot = 0; slot < variableNames.length; slot++) {
+            if (variableNames[slot].equals(variableName)) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return New reusable holder of values of variables of this formula
+     */
+    public Bindings newBindings() {
+        return new Bindings(compile().variableNames);
+    }
+
+    /**
+     * Compiles tree into JVM class, falls back to stack machine if formula is too big for one method
+     * @return Function evaluating formula, takes values in order of {@link CompiledFormula#getVariableNames()}
+     */
+    public FormulaFunction compileToBytecode() {
+        FormulaFunction function = formulaFunction;
+        if (function == null) {
+            CompiledFormula compiled = compile();
+            try {
+                function = BytecodeCompiler.compile(compiled);
+            } catch (IllegalArgumentException e) {
+                function = values -> compiled.evaluate(values, new double[compiled.getStackSize()]);
+            }
+            formulaFunction = function;
+        }
+        return function;
+    }
+
+    /**
+     * @return Function compiled by {@link #compileToBytecode()} or null if formula is not compiled yet
+     */
+    FormulaFunction getCompiledFunction() {
+        return formulaFunction;
+    }
+
+    /**
+     * @return true if formula is compiled to JVM class, or to its fallback
+     */
+    public boolean isCompiledToBytecode() {
+        return formulaFunction != null;
+    }
+
+    /**
+     * @return Number of evaluations of formula by Calculator with TIERED engine
+     */
+    public long getEvaluationCount() {
+        return evaluationCount.sum();
+    }
+
+    /**
+     * Counts evaluations and tells whether formula has just become hot
+     *
+     * @param count     Number of evaluations
+     * @param threshold Number of evaluations after which formula is promoted
+     * @return true for exactly one call, the first one reaching threshold
+     */
+    boolean countEvaluations(long count, long threshold) {
+        evaluationCount.add(count);
+        // Sum is taken only until promotion is requested
+        if (promotionRequested.get() || evaluationCount.sum() < threshold) {
+            return false;
+        }
+        return promotionRequested.compareAndSet(false, true);
+    }
+
+    /**
+     * Creates tree of left - right, subexpressions shared by both sides are evaluated once
+     * @param left Left side of equation
+     * @param right Right side of equation
+     * @return FormulaTree of difference
+     */
+    public static FormulaTree difference(FormulaTree left, FormulaTree right) {
+        return new FormulaTree(NodeInterner.intern(new Node(TokenName.OPERATOR_MINUS, left.firstNode, right.firstNode)));
+    }
+
     /**
      * Creates FormulaTree from array of tokens
-     * @param tokens array of tokens
+     * @param tokens array of tokens, not modified
      * @return FormulaTree
      */
     public static FormulaTree createFormulaTree(List<Token> tokens) {
+        long start = Metrics.start();
+        try {
+            return buildFormulaTree(tokens);
+        } catch (RuntimeException e) {
+            CREATE_FORMULA_TREE_TIMER.error(e);
+            throw e;
+        } finally {
+            CREATE_FORMULA_TREE_TIMER.stop(start);
+        }
+    }
+
+    private static FormulaTree buildFormulaTree(List<Token> tokens) {
         // It's polish reverse notation
 
-        // Reversing all tokens and adding them to formula stack
-        Collections.reverse(tokens);
+        // Adding tokens to formula stack in reverse order, so first token is on top
         Stack<Token> formula = new Stack<>();
-        formula.addAll(tokens);
+        for (int i = tokens.size() - 1; i >= 0; i--) {
+            formula.push(tokens.get(i));
+        }
 
 
         Stack<Node> nodes = new Stack<>();
@@ -40,13 +212,13 @@ public class FormulaTree {
             // If it's a number
             if (currToken.getTokenName() == TokenName.NUMBER){
                 // Parse double, create node and push it to nodes stack
-                nodes.push(new Node(currToken.getTokenName(), Double.parseDouble(currToken.content)));
+                nodes.push(NodeInterner.intern(new Node(currToken.getTokenName(), Double.parseDouble(currToken.content))));
                 continue;
             }
             // If it's variable
             if (currToken.getTokenName() == TokenName.VARIABLE) {
                 // Create node and push it to nodes stack
-                nodes.push(new Node(currToken.getTokenName(), currToken.content));
+                nodes.push(NodeInterner.intern(new Node(currToken.getTokenName(), currToken.content)));
                 continue;
             }
 
@@ -108,13 +280,13 @@ public class FormulaTree {
         TokenName operationName = operators.pop();
 
         Node rightNode = nodes.pop();
-        Node newNode = new Node(operationName);
-        newNode.right = rightNode;
+        Node leftNode = null;
 
         if (TokenName.isBinaryOperator(operationName)) {
-            newNode.left = nodes.pop();
+            leftNode = nodes.pop();
         }
 
+        Node newNode = NodeInterner.intern(new Node(operationName, leftNode, rightNode));
         nodes.push(newNode);
     }
 
@@ -2,6 +2,8 @@ package gfl.calculator;
 
 import gfl.exceptions.IncorrectFormulaException;
 import gfl.exceptions.LexicalException;
+import gfl.metrics.Metrics;
+import gfl.metrics.Timer;
 
 import java.util.ArrayList;
 import java.util.Collections;
@@ -15,14 +17,143 @@ abstract public class LexicalAnalyzer {
     static final String alphabet = "x0123456789-+*/()=.";
     static final TokenName[] TOKEN_NAMES = TokenName.values();
 
+    static final Timer TOKENIZE_TIMER = Metrics.timer("tokenize");
+
+    // Switch between the single-pass scanner and the legacy regex passes (-Dgfl.lexer.regex=true)
+    private static volatile boolean useRegexLexer = Boolean.getBoolean("gfl.lexer.regex");
+
     /**
-     * Create tokens from formula
+     * Create tokens from formula, using the single-pass scanner unless the regex lexer is switched on
      *
      * @param formula formula to tokenize
      * @return Array of tokens
      * @throws IncorrectFormulaException Formula has incorrect chars
      */
     public static ArrayList<Token> tokenize(String formula) throws IncorrectFormulaException, LexicalException {
+        long start = Metrics.start();
+        try {
+            if (useRegexLexer) {
+                return tokenizeWithRegex(formula);
+            }
+            return tokenizeSinglePass(formula);
+        } catch (IncorrectFormulaException | LexicalException | RuntimeException e) {
+            TOKENIZE_TIMER.error(e);
+            throw e;
+        } finally {
+            TOKENIZE_TIMER.stop(start);
+        }
+    }
+
+    public static boolean isUseRegexLexer() {
+        return useRegexLexer;
+    }
+
+    /**
+     * @param useRegexLexer true to make {@link #tokenize(String)} use the legacy regex passes
+     */
+    public static void setUseRegexLexer(boolean useRegexLexer) {
+        LexicalAnalyzer.useRegexLexer = useRegexLexer;
+    }
+
+    /**
+     * Create tokens from formula in one linear pass, tokens are produced already in order of their position
+     *
+     * @param formula formula to tokenize
+     * @return Array of tokens
+     * @throws IncorrectFormulaException Formula has incorrect chars
+     */
+    public static ArrayList<Token> tokenizeSinglePass(String formula) throws IncorrectFormulaException, LexicalException {
+
+        ArrayList<Token> tokens = new ArrayList<>();
+        // Characters that do not start any token, reported the same way as the regex lexer does
+        StringBuilder unacceptable = null;
+
+        int length = formula.length();
+        int pos = 0;
+        while (pos < length) {
+            char c = formula.charAt(pos);
+            int start = pos;
+
+            if (isLetter(c)) {
+                // [a-zA-Z]{1}[a-zA-Z0-9]*
+                pos++;
+                while (pos < length && (isLetter(formula.charAt(pos)) || isDigit(formula.charAt(pos)))) {
+                    pos++;
+                }
+                tokens.add(new Token(TokenName.VARIABLE, formula.substring(start, pos), start, pos));
+                continue;
+            }
+
+            if (isDigit(c)) {
+                // [0-9]+(\.[0-9]*)?
+                pos++;
+                while (pos < length && isDigit(formula.charAt(pos))) {
+                    pos++;
+                }
+                if (pos < length && formula.charAt(pos) == '.') {
+                    pos++;
+                    while (pos < length && isDigit(formula.charAt(pos))) {
+                        pos++;
+                    }
+                }
+                tokens.add(new Token(TokenName.NUMBER, formula.substring(start, pos), start, pos));
+                continue;
+            }
+
+            pos++;
+            TokenName tokenName;
+            switch (c) {
+                case '+' -> tokenName = TokenName.OPERATOR_PLUS;
+                case '-' -> tokenName = TokenName.OPERATOR_MINUS;
+                case '/' -> tokenName = TokenName.OPERATOR_DIVIDE;
+                case '*' -> tokenName = TokenName.OPERATOR_MULTIPLY;
+                case '(' -> tokenName = TokenName.OPEN_PARENTHESIS;
+                case ')' -> tokenName = TokenName.CLOSE_PARENTHESIS;
+                case ' ' -> {
+                    // Spaces are skipped, the regex lexer removes them together with REPLACE_STRING
+                    continue;
+                }
+                default -> {
+                    if (unacceptable == null) {
+                        unacceptable = new StringBuilder();
+                    }
+                    unacceptable.append(c);
+                    continue;
+                }
+            }
+            tokens.add(new Token(tokenName, String.valueOf(c), start, pos));
+        }
+
+        if (unacceptable != null) {
+            throw new IncorrectFormulaException("Characters:  " + unacceptable + "  are not acceptable");
+        }
+
+        if (tokens.isEmpty()) {
+            throw new IncorrectFormulaException("Formula is empty");
+        }
+
+        replaceUnary(tokens);
+        getErrors(tokens);
+
+        return tokens;
+    }
+
+    private static boolean isLetter(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    /**
+     * Create tokens from formula with one regex pass per TokenName (legacy lexer)
+     *
+     * @param formula formula to tokenize
+     * @return Array of tokens
+     * @throws IncorrectFormulaException Formula has incorrect chars
+     */
+    public static ArrayList<Token> tokenizeWithRegex(String formula) throws IncorrectFormulaException, LexicalException {
 
         ArrayList<Token> tokens = new ArrayList<>();
 
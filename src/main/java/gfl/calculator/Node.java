@@ -1,53 +1,50 @@
 package gfl.calculator;
 
+import java.util.Objects;
+
 /**
- * Node of Formula Tree
+ * Node of Formula Tree. Nodes are immutable, so they are safely shared by many trees and threads,
+ * they are interned by {@link NodeInterner}, equality is structural with children compared by identity
  */
 public class Node {
 
     private final TokenName tokenName;
-    private double value;
-    private String variableName;
+    private final double value;
+    private final String variableName;
 
     /**
      * Left node
      */
-    Node left;
+    final Node left;
     /**
      * Right node
      */
-    Node right;
+    final Node right;
 
 
     Node(TokenName tokenName) {
-        this.tokenName = tokenName;
+        this(tokenName, 0, null, null, null);
     }
 
-    Node(TokenName tokenName, double value) {
-        this.tokenName = tokenName;
-        this.setValue(value);
+    Node(TokenName tokenName, Node left, Node right) {
+        this(tokenName, 0, null, left, right);
     }
 
-
-    Node(TokenName tokenName, String variableName) {
-        this.tokenName = tokenName;
-        this.setVariable(variableName);
+    Node(TokenName tokenName, double value) {
+        this(tokenName, value, null, null, null);
     }
 
-    public void setLeft(Node left) {
-        this.left = left;
-    }
 
-    public void setRight(Node right) {
-        this.right = right;
+    Node(TokenName tokenName, String variableName) {
+        this(tokenName, 0, variableName, null, null);
     }
 
-    private void setValue(double value) {
+    private Node(TokenName tokenName, double value, String variableName, Node left, Node right) {
+        this.tokenName = tokenName;
         this.value = value;
-    }
-
-    private void setVariable(String variableName) {
         this.variableName = variableName;
+        this.left = left;
+        this.right = right;
     }
 
     public TokenName getTokenName() {
@@ -61,4 +58,25 @@ public class Node {
     public String getVariableName() {
         return variableName;
     }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof Node node)) return false;
+        return tokenName == node.tokenName
+                && Double.doubleToRawLongBits(value) == Double.doubleToRawLongBits(node.value)
+                && Objects.equals(variableName, node.variableName)
+                && left == node.left
+                && right == node.right;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = tokenName.hashCode();
+        result = 31 * result + Long.hashCode(Double.doubleToRawLongBits(value));
+        result = 31 * result + Objects.hashCode(variableName);
+        result = 31 * result + System.identityHashCode(left);
+        result = 31 * result + System.identityHashCode(right);
+        return result;
+    }
 }
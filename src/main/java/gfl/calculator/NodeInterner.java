@@ -0,0 +1,42 @@
+package gfl.calculator;
+
+import java.lang.ref.WeakReference;
+import java.util.WeakHashMap;
+
+/**
+ * Hash-consing of Nodes: structurally equal subtrees of all formulas are represented by one canonical Node,
+ * so FormulaTrees form a DAG sharing their common subexpressions. Canonical nodes are held weakly and disappear
+ * together with the last formula using them
+ */
+abstract public class NodeInterner {
+
+    private static final WeakHashMap<Node, WeakReference<Node>> NODES = new WeakHashMap<>();
+
+    /**
+     * Returns canonical node structurally equal to given one. Children of node must be canonical already,
+     * then structural equality is decided by comparing children by identity
+     *
+     * @param node Node with canonical children
+     * @return Canonical node
+     */
+    static Node intern(Node node) {
+        synchronized (NODES) {
+            WeakReference<Node> reference = NODES.get(node);
+            Node canonical = reference == null ? null : reference.get();
+            if (canonical != null) {
+                return canonical;
+            }
+            NODES.put(node, new WeakReference<>(node));
+            return node;
+        }
+    }
+
+    /**
+     * @return Number of canonical nodes alive
+     */
+    public static int size() {
+        synchronized (NODES) {
+            return NODES.size();
+        }
+    }
+}
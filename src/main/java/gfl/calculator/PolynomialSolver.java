@@ -0,0 +1,164 @@
+package gfl.calculator;
+
+import java.util.Arrays;
+
+/**
+ * Closed-form solver for equations that are polynomials of degree 2 or less in one variable.
+ * Each side is expanded into coefficients in one pass over the tree, then solved with numerically stable formulas
+ */
+abstract public class PolynomialSolver {
+
+    static final int MAX_DEGREE = 2;
+
+    /**
+     * Expands formula into polynomial coefficients
+     *
+     * @param formulaTree  Formula
+     * @param variableName Variable of polynomial
+     * @return {c0, c1, c2} of c0 + c1*x + c2*x*x, or null if formula is not such polynomial
+     * (higher degree, other variables, division by non-constant or by zero)
+     */
+    public static double[] coefficients(FormulaTree formulaTree, String variableName) {
+        return expand(formulaTree.firstNode, variableName);
+    }
+
+    /**
+     * Solves left = right if it is a polynomial equation of degree 2 or less
+     *
+     * @param left         Left side of equation
+     * @param right        Right side of equation
+     * @param variableName Variable of equation
+     * @return Real roots ascending, or null if equation is not polynomial of degree 2 or less,
+     * or every value of variable is a root
+     * @throws ArithmeticException Roots can not be computed in double precision, see {@link #solve(double[])}
+     */
+    public static double[] solve(FormulaTree left, FormulaTree right, String variableName) {
+        double[] leftCoefficients = coefficients(left, variableName);
+        if (leftCoefficients == null) {
+            return null;
+        }
+        double[] rightCoefficients = coefficients(right, variableName);
+        if (rightCoefficients == null) {
+            return null;
+        }
+        return solve(subtract(leftCoefficients, rightCoefficients));
+    }
+
+    /**
+     * Solves c0 + c1*x + c2*x*x = 0
+     *
+     * @param coefficients {c0, c1, c2}
+     * @return Real roots ascending, or null if every x is a root
+     * @throws ArithmeticException A coefficient, the discriminant or a root is not finite,
+     * roots have to be searched numerically then
+     */
+    public static double[] solve(double[] coefficients) {
+        double c = coefficients[0];
+        double b = coefficients[1];
+        double a = coefficients[2];
+        if (!Double.isFinite(a) || !Double.isFinite(b) || !Double.isFinite(c)) {
+            throw new ArithmeticException("Coefficients are not finite");
+        }
+
+        if (a == 0.) {
+            if (b == 0.) {
+                return c == 0. ? null : new double[0];
+            }
+            return finite(new double[]{-c / b});
+        }
+
+        double discriminant = b * b - 4 * a * c;
+        if (!Double.isFinite(discriminant)) {
+            throw new ArithmeticException("Discriminant overflows");
+        }
+        if (discriminant < 0) {
+            return new double[0];
+        }
+        if (discriminant == 0.) {
+            return finite(new double[]{-b / (2 * a)});
+        }
+        // q has the sign of b, so b + sign(b)*sqrt(d) never cancels
+        double q = -0.5 * (b + Math.copySign(Math.sqrt(discriminant), b));
+        double[] roots = q == 0. ? new double[]{0.} : new double[]{q / a, c / q};
+        Arrays.sort(roots);
+        return finite(roots);
+    }
+
+    private static double[] finite(double[] roots) {
+        for (double root : roots) {
+            if (!Double.isFinite(root)) {
+                throw new ArithmeticException("Root overflows");
+            }
+        }
+        return roots;
+    }
+
+    /**
+     * @return Coefficients of subtree or null if it is not polynomial of degree 2 or less
+     */
+    private static double[] expand(Node node, String variableName) {
+        switch (node.getTokenName()) {
+            case NUMBER -> {
+                return new double[]{node.getValue(), 0, 0};
+            }
+            case VARIABLE -> {
+                return node.getVariableName().equals(variableName) ? new double[]{0, 1, 0} : null;
+            }
+            case UNARY_MINUS -> {
+                double[] operand = expand(node.right, variableName);
+                if (operand == null) {
+                    return null;
+                }
+                return new double[]{-operand[0], -operand[1], -operand[2]};
+            }
+            case OPERATOR_PLUS, OPERATOR_MINUS, OPERATOR_MULTIPLY, OPERATOR_DIVIDE -> {
+                double[] left = expand(node.left, variableName);
+                if (left == null) {
+                    return null;
+                }
+                double[] right = expand(node.right, variableName);
+                if (right == null) {
+                    return null;
+                }
+                return switch (node.getTokenName()) {
+                    case OPERATOR_PLUS -> new double[]{left[0] + right[0], left[1] + right[1], left[2] + right[2]};
+                    case OPERATOR_MINUS -> subtract(left, right);
+                    case OPERATOR_MULTIPLY -> multiply(left, right);
+                    default -> divide(left, right);
+                };
+            }
+            default -> {
+                return null;
+            }
+        }
+    }
+
+    private static double[] subtract(double[] left, double[] right) {
+        return new double[]{left[0] - right[0], left[1] - right[1], left[2] - right[2]};
+    }
+
+    private static double[] multiply(double[] left, double[] right) {
+        double[] product = new double[2 * MAX_DEGREE + 1];
+        for (int i = 0; i <= MAX_DEGREE; i++) {
+            for (int j = 0; j <= MAX_DEGREE; j++) {
+                product[i + j] += left[i] * right[j];
+            }
+        }
+        for (int degree = MAX_DEGREE + 1; degree < product.length; degree++) {
+            if (product[degree] != 0.) {
+                return null;
+            }
+        }
+        return Arrays.copyOf(product, MAX_DEGREE + 1);
+    }
+
+    /**
+     * Division only by non-zero constant
+     */
+    private static double[] divide(double[] left, double[] right) {
+        if (right[1] != 0. || right[2] != 0. || right[0] == 0.) {
+            return null;
+        }
+        return new double[]{left[0] / right[0], left[1] / right[0], left[2] / right[0]};
+    }
+}
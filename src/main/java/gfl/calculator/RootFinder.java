@@ -0,0 +1,390 @@
+package gfl.calculator;
+
+import gfl.exceptions.IncorrectFormulaException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Finds roots of equation left = right in one variable. Equations of degree 2 or less are solved in closed form
+ * by {@link PolynomialSolver}, for other equations interval is scanned on a grid for sign changes of
+ * left - right, every bracketed sign change is refined with Brent's method and polished with Newton steps on
+ * symbolic derivative. Parts of grid are scanned in parallel on a ForkJoinPool
+ */
+public class RootFinder {
+
+    static final int DEFAULT_STEPS = 100_000;
+    static final double DEFAULT_TOLERANCE = 1e-12;
+    static final double DEFAULT_FUNCTION_TOLERANCE = 1e-9;
+    static final int MAX_ITERATIONS = 200;
+    static final int NEWTON_STEPS = 3;
+    // Grid points scanned by one task, also size of one batch evaluation
+    static final int POINTS_PER_TASK = 4096;
+
+    private final Calculator calculator;
+    private final ForkJoinPool pool;
+    private int steps = DEFAULT_STEPS;
+    private double tolerance = DEFAULT_TOLERANCE;
+    private double functionTolerance = DEFAULT_FUNCTION_TOLERANCE;
+
+    public RootFinder(Calculator calculator) {
+        this(calculator, ForkJoinPool.commonPool());
+    }
+
+    public RootFinder(Calculator calculator, ForkJoinPool pool) {
+        this.calculator = calculator;
+        this.pool = pool;
+    }
+
+    /**
+     * @param steps Number of grid intervals interval is split into, two roots closer than one step may be missed
+     * @return this
+     */
+    public RootFinder setSteps(int steps) {
+        if (steps < 1) {
+            throw new IllegalArgumentException("Steps must be positive: " + steps);
+        }
+        this.steps = steps;
+        return this;
+    }
+
+    /**
+     * @param tolerance Width of bracket at which refinement stops, roots closer than this are merged
+     * @return this
+     */
+    public RootFinder setTolerance(double tolerance) {
+        this.tolerance = tolerance;
+        return this;
+    }
+
+    /**
+     * @param functionTolerance Largest |left - right| at found root, sign changes over poles are rejected by it
+     * @return this
+     */
+    public RootFinder setFunctionTolerance(double functionTolerance) {
+        this.functionTolerance = functionTolerance;
+        return this;
+    }
+
+    public int getSteps() {
+        return steps;
+    }
+
+    public double getTolerance() {
+        return tolerance;
+    }
+
+    public double getFunctionTolerance() {
+        return functionTolerance;
+    }
+
+    /**
+     * @param left         Left side of equation
+     * @param right        Right side of equation
+     * @param variableName The only variable of equation
+     * @param from         Start of interval
+     * @param to           End of interval
+     * @return Roots in [from, to], ascending
+     * @throws IncorrectFormulaException Equation has other variables
+     */
+    public double[] findRoots(FormulaTree left, FormulaTree right, String variableName, double from, double to) throws IncorrectFormulaException {
+        return findRoots(FormulaTree.difference(left, right), variableName, from, to);
+    }
+
+    /**
+     * Roots of polynomial function of degree 2 or less in [from, to], checked like roots found by scanning,
+     * with function tolerance relative to size of terms of polynomial at root
+     *
+     * @return Roots ascending or null if function is not such polynomial or its roots overflow in closed form
+     */
+    private double[] findPolynomialRoots(FormulaTree formulaTree, Function function, String variableName, double from, double to) {
+        double[] coefficients = PolynomialSolver.coefficients(formulaTree, variableName);
+        if (coefficients == null) {
+            return null;
+        }
+        double[] candidates;
+        try {
+            candidates = PolynomialSolver.solve(coefficients);
+        } catch (ArithmeticException e) {
+            // Coefficients too large for closed form, grid scan still finds roots in interval
+            return null;
+        }
+        if (candidates == null) {
+            // Every x is a root, scanning reports the grid points
+            return null;
+        }
+        double[] roots = new double[candidates.length];
+        int size = 0;
+        for (double candidate : candidates) {
+            double root = function.polish(candidate);
+            // Rounding error of f(root) grows with its terms, so tolerance is relative to them
+            double scale = Math.max(1., Math.abs(coefficients[0]) + Math.abs(coefficients[1] * root)
+                    + Math.abs(coefficients[2] * root * root));
+            if (root >= from && root <= to && Math.abs(function.at(root)) <= functionTolerance * scale) {
+                roots[size++] = root;
+            }
+        }
+        return merge(Arrays.copyOf(roots, size));
+    }
+
+    /**
+     * @param formulaTree  Function whose zeros are searched
+     * @param variableName The only variable of function
+     * @param from         Start of interval
+     * @param to           End of interval
+     * @return Roots in [from, to], ascending
+     * @throws IncorrectFormulaException Function has other variables
+     */
+    public double[] findRoots(FormulaTree formulaTree, String variableName, double from, double to) throws IncorrectFormulaException {
+        if (!(from <= to) || Double.isInfinite(from) || Double.isInfinite(to)) {
+            throw new IllegalArgumentException("Interval must be finite and ordered: [" + from + ", " + to + "]");
+        }
+        for (String name : formulaTree.getVariableNames()) {
+            if (!name.equals(variableName)) {
+                throw new IncorrectFormulaException("Argument " + "\"" + name + "\" is not set");
+            }
+        }
+
+        Function function = new Function(formulaTree, variableName);
+        double[] polynomialRoots = findPolynomialRoots(formulaTree, function, variableName, from, to);
+        if (polynomialRoots != null) {
+            return polynomialRoots;
+        }
+        double[] roots = pool.invoke(new ScanTask(function, from, to, 0, steps));
+        Arrays.sort(roots);
+        return merge(roots);
+    }
+
+    /**
+     * Drops roots closer than tolerance to previous one
+     */
+    private double[] merge(double[] roots) {
+        int size = 0;
+        for (double root : roots) {
+            if (size == 0 || root - roots[size - 1] > tolerance * Math.max(1., Math.abs(root))) {
+                roots[size++] = root;
+            }
+        }
+        return Arrays.copyOf(roots, size);
+    }
+
+    /**
+     * Function of one variable evaluated by calculator, zero division gives NaN
+     */
+    private class Function {
+        final FormulaTree formulaTree;
+        final FormulaTree derivative;
+        final int slot;
+        final int derivativeSlot;
+        final double[] emptyValues;
+
+        Function(FormulaTree formulaTree, String variableName) {
+            this.formulaTree = formulaTree;
+            this.derivative = formulaTree.derivative(variableName);
+            this.slot = formulaTree.getVariableSlot(variableName);
+            this.derivativeSlot = derivative.getVariableSlot(variableName);
+            this.emptyValues = new double[slot == -1 ? 0 : 1];
+        }
+
+        double at(double x) {
+            return evaluate(formulaTree, slot, x);
+        }
+
+        double derivativeAt(double x) {
+            return evaluate(derivative, derivativeSlot, x);
+        }
+
+        private double evaluate(FormulaTree tree, int variableSlot, double x) {
+            double[] values = variableSlot == -1 ? new double[0] : new double[]{x};
+            try {
+                return calculator.calculateFormulaThree(tree, values);
+            } catch (IncorrectFormulaException | ArithmeticException e) {
+                return Double.NaN;
+            }
+        }
+
+        /**
+         * Newton steps from root found by bracketing, a step is kept only if it gets closer to zero
+         */
+        double polish(double root) {
+            double value = at(root);
+            for (int step = 0; step < NEWTON_STEPS && value != 0.; step++) {
+                double slope = derivativeAt(root);
+                if (!Double.isFinite(slope) || slope == 0.) {
+                    break;
+                }
+                double next = root - value / slope;
+                double nextValue = at(next);
+                if (!(Math.abs(nextValue) < Math.abs(value))) {
+                    break;
+                }
+                root = next;
+                value = nextValue;
+            }
+            return root;
+        }
+
+        void atAll(double[] column, double[] out) {
+            try {
+                calculator.calculateBatch(formulaTree, emptyValues, slot, column, out, ZeroDivisionMode.NAN);
+            } catch (IncorrectFormulaException e) {
+                // Slots are checked in findRoots
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    /**
+     * Scans grid points [firstStep, lastStep] of interval, splitting itself while there are too many points
+     */
+    private class ScanTask extends RecursiveTask<double[]> {
+        final Function function;
+        final double from;
+        final double to;
+        final int firstStep;
+        final int lastStep;
+
+        ScanTask(Function function, double from, double to, int firstStep, int lastStep) {
+            this.function = function;
+            this.from = from;
+            this.to = to;
+            this.firstStep = firstStep;
+            this.lastStep = lastStep;
+        }
+
+        @Override
+        protected double[] compute() {
+            if (lastStep - firstStep > POINTS_PER_TASK) {
+                // Middle point is scanned by both halves, duplicates are merged afterwards
+                int middleStep = (firstStep + lastStep) >>> 1;
+                ScanTask leftTask = new ScanTask(function, from, to, firstStep, middleStep);
+                ScanTask rightTask = new ScanTask(function, from, to, middleStep, lastStep);
+                leftTask.fork();
+                double[] rightRoots = rightTask.compute();
+                double[] leftRoots = leftTask.join();
+                double[] roots = Arrays.copyOf(leftRoots, leftRoots.length + rightRoots.length);
+                System.arraycopy(rightRoots, 0, roots, leftRoots.length, rightRoots.length);
+                return roots;
+            }
+            return scan();
+        }
+
+        private double[] scan() {
+            int points = lastStep - firstStep + 1;
+            double[] x = new double[points];
+            for (int i = 0; i < points; i++) {
+                x[i] = pointAt(firstStep + i);
+            }
+            double[] y = new double[points];
+            function.atAll(x, y);
+
+            ArrayList<Double> roots = new ArrayList<>();
+            for (int i = 0; i < points; i++) {
+                if (y[i] == 0.) {
+                    roots.add(x[i]);
+                    continue;
+                }
+                if (i + 1 < points && isSignChange(y[i], y[i + 1])) {
+                    double root = brent(x[i], x[i + 1], y[i], y[i + 1]);
+                    if (Double.isNaN(root)) {
+                        continue;
+                    }
+                    root = function.polish(root);
+                    if (Math.abs(function.at(root)) <= functionTolerance) {
+                        roots.add(root);
+                    }
+                }
+            }
+            return roots.stream().mapToDouble(Double::doubleValue).toArray();
+        }
+
+        private double pointAt(int step) {
+            if (step == steps) {
+                return to;
+            }
+            return from + (to - from) * step / steps;
+        }
+
+        private boolean isSignChange(double first, double second) {
+            return (first < 0 && second > 0) || (first > 0 && second < 0);
+        }
+
+        /**
+         * Brent's method on bracket [a, b] with f(a), f(b) of opposite signs
+         *
+         * @return Root or NaN if function is not defined inside bracket
+         */
+        private double brent(double a, double b, double fa, double fb) {
+            double c = a;
+            double fc = fa;
+            double d = b - a;
+            double e = d;
+
+            for (int iteration = 0; iteration < MAX_ITERATIONS; iteration++) {
+                if ((fb > 0 && fc > 0) || (fb < 0 && fc < 0)) {
+                    c = a;
+                    fc = fa;
+                    d = b - a;
+                    e = d;
+                }
+                if (Math.abs(fc) < Math.abs(fb)) {
+                    a = b;
+                    b = c;
+                    c = a;
+                    fa = fb;
+                    fb = fc;
+                    fc = fa;
+                }
+
+                double toleranceHere = 2 * Math.ulp(b) + 0.5 * tolerance;
+                double middle = 0.5 * (c - b);
+                if (Math.abs(middle) <= toleranceHere || fb == 0.) {
+                    return b;
+                }
+
+                if (Math.abs(e) >= toleranceHere && Math.abs(fa) > Math.abs(fb)) {
+                    // Inverse quadratic interpolation, or secant if only two points are distinct
+                    double s = fb / fa;
+                    double p;
+                    double q;
+                    if (a == c) {
+                        p = 2 * middle * s;
+                        q = 1 - s;
+                    } else {
+                        double r = fb / fc;
+                        q = fa / fc;
+                        p = s * (2 * middle * q * (q - r) - (b - a) * (r - 1));
+                        q = (q - 1) * (r - 1) * (s - 1);
+                    }
+                    if (p > 0) {
+                        q = -q;
+                    } else {
+                        p = -p;
+                    }
+                    if (2 * p < Math.min(3 * middle * q - Math.abs(toleranceHere * q), Math.abs(e * q))) {
+                        e = d;
+                        d = p / q;
+                    } else {
+                        d = middle;
+                        e = d;
+                    }
+                } else {
+                    // Bisection
+                    d = middle;
+                    e = d;
+                }
+
+                a = b;
+                fa = fb;
+                b += Math.abs(d) > toleranceHere ? d : Math.copySign(toleranceHere, middle);
+                fb = function.at(b);
+                if (Double.isNaN(fb)) {
+                    return Double.NaN;
+                }
+            }
+            return b;
+        }
+    }
+}
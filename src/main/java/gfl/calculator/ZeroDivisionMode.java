@@ -0,0 +1,15 @@
+package gfl.calculator;
+
+/**
+ * What batch evaluation does when it meets zero division
+ */
+public enum ZeroDivisionMode {
+    /**
+     * Throw ArithmeticException, like single evaluation does
+     */
+    THROW,
+    /**
+     * Write NaN for points with zero division and keep evaluating other points
+     */
+    NAN
+}
@@ -0,0 +1,183 @@
+package gfl.db;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.Set;
+import java.util.concurrent.*;
+
+/**
+ * Fixed size pool of JDBC connections. Idle connections are validated before reuse, connections held for
+ * too long are reported as leaked. Every connection keeps its prepared statements, see {@link PooledConnection}
+ */
+public class ConnectionPool implements AutoCloseable {
+
+    private final String url;
+    private final String user;
+    private final String password;
+    private final long connectionTimeoutMillis;
+    private final long validationIntervalMillis;
+    private final int validationTimeoutSeconds;
+    private final long leakDetectionThresholdMillis;
+
+    private final LinkedBlockingDeque<PooledConnection> idleConnections = new LinkedBlockingDeque<>();
+    // One permit per connection that can be handed out
+    private final Semaphore permits;
+    private final Set<PooledConnection> borrowedConnections = ConcurrentHashMap.newKeySet();
+    private final ScheduledExecutorService leakDetector;
+
+    private volatile boolean closed;
+
+    /**
+     * @param url    Url of database
+     * @param config Credentials and pool settings
+     */
+    public ConnectionPool(String url, DatabaseConfig config) {
+        this.url = url;
+        this.user = config.getUser();
+        this.password = config.getPassword();
+        this.connectionTimeoutMillis = config.getConnectionTimeoutMillis();
+        this.validationIntervalMillis = config.getValidationIntervalMillis();
+        this.validationTimeoutSeconds = config.getValidationTimeoutSeconds();
+        this.leakDetectionThresholdMillis = config.getLeakDetectionThresholdMillis();
+        this.permits = new Semaphore(config.getPoolSize(), true);
+
+        if (leakDetectionThresholdMillis > 0) {
+            leakDetector = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "connection-leak-detector");
+                thread.setDaemon(true);
+                return thread;
+            });
+            long period = Math.max(leakDetectionThresholdMillis / 2, 100);
+            leakDetector.scheduleAtFixedRate(this::detectLeaks, period, period, TimeUnit.MILLISECONDS);
+        } else {
+            leakDetector = null;
+        }
+    }
+
+    /**
+     * Takes idle connection or opens new one, waits if all connections are in use.
+     * Connection must be closed to return it to pool
+     *
+     * @return Connection
+     * @throws SQLException No connection became free in time or database is not available
+     */
+    public PooledConnection getConnection() throws SQLException {
+        if (closed) {
+            throw new SQLException("Connection pool is closed");
+        }
+        try {
+            if (!permits.tryAcquire(connectionTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                throw new SQLException("No free connection in " + connectionTimeoutMillis + " ms");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for connection", e);
+        }
+
+        try {
+            PooledConnection connection;
+            while ((connection = idleConnections.pollFirst()) != null) {
+                if (isUsable(connection)) {
+                    break;
+                }
+                connection.closePhysically();
+            }
+            if (connection == null) {
+                connection = new PooledConnection(this, DriverManager.getConnection(url, user, password));
+            }
+            connection.borrowedAt = System.currentTimeMillis();
+            // Leak of previous borrower was reported already, this borrower gets its own report
+            connection.leakReported = false;
+            if (leakDetector != null) {
+                connection.borrowedBy = new Exception("Connection was borrowed here");
+            }
+            borrowedConnections.add(connection);
+            return connection;
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * @return Number of connections in use
+     */
+    public int getActiveCount() {
+        return borrowedConnections.size();
+    }
+
+    /**
+     * @return Number of open connections waiting in pool
+     */
+    public int getIdleCount() {
+        return idleConnections.size();
+    }
+
+    /**
+     * Closes idle connections, borrowed connections are closed when they are returned
+     */
+    @Override
+    public void close() {
+        closed = true;
+        if (leakDetector != null) {
+            leakDetector.shutdownNow();
+        }
+        PooledConnection connection;
+        while ((connection = idleConnections.pollFirst()) != null) {
+            connection.closePhysically();
+        }
+    }
+
+    void release(PooledConnection connection) {
+        if (!borrowedConnections.remove(connection)) {
+            return;
+        }
+        connection.borrowedBy = null;
+        if (closed || connection.isBroken()) {
+            connection.closePhysically();
+        } else {
+            connection.releasedAt = System.currentTimeMillis();
+            // Most recently used first, so rarely used connections age out through validation
+            idleConnections.offerFirst(connection);
+        }
+        permits.release();
+    }
+
+    private boolean isUsable(PooledConnection connection) {
+        if (System.currentTimeMillis() - connection.releasedAt < validationIntervalMillis) {
+            return true;
+        }
+        try {
+            return connection.getConnection().isValid(validationTimeoutSeconds);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Reports connections held for longer than leak detection threshold, each borrow once
+     */
+    void detectLeaks() {
+        long now = System.currentTimeMillis();
+        for (PooledConnection connection : borrowedConnections) {
+            Exception borrowedBy = connection.borrowedBy;
+            if (borrowedBy != null && !connection.leakReported && now - connection.borrowedAt > leakDetectionThresholdMillis) {
+                connection.leakReported = true;
+                System.err.println("Connection is held for " + (now - connection.borrowedAt) + " ms, possible leak");
+                borrowedBy.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Closes connection instead of returning it to pool
+     */
+    static void closeQuietly(Connection connection) {
+        try {
+            connection.close();
+        } catch (SQLException e) {
+            // Connection is dropped anyway
+        }
+    }
+}
@@ -0,0 +1,227 @@
+package gfl.db;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Properties;
+
+/**
+ * Settings of equation storage and connection settings of CalculatorDB. Values are taken, in order of precedence, from system properties
+ * (-Dgfl.db.url=...), from file given by -Dgfl.db.config, from calculator-db.properties on classpath
+ * and from defaults for local PostgreSQL
+ */
+public class DatabaseConfig {
+
+    static final String RESOURCE_NAME = "calculator-db.properties";
+    static final String PREFIX = "gfl.db.";
+
+    private final Properties properties;
+
+    DatabaseConfig(Properties properties) {
+        this.properties = properties;
+    }
+
+    /**
+     * @return Config of local PostgreSQL, with overrides from properties files and system properties
+     */
+    public static DatabaseConfig load() {
+        Properties properties = defaults();
+
+        try (InputStream resource = DatabaseConfig.class.getClassLoader().getResourceAsStream(RESOURCE_NAME)) {
+            if (resource != null) {
+                properties.load(resource);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        String configFile = System.getProperty(PREFIX + "config");
+        if (configFile != null) {
+            try (InputStream file = Files.newInputStream(Path.of(configFile))) {
+                properties.load(file);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        for (String name : System.getProperties().stringPropertyNames()) {
+            if (name.startsWith(PREFIX)) {
+                properties.setProperty(name.substring(PREFIX.length()), System.getProperty(name));
+            }
+        }
+        return new DatabaseConfig(properties);
+    }
+
+    /**
+     * @param properties Settings without gfl.db. prefix, missing settings take default values
+     * @return Config
+     */
+    public static DatabaseConfig of(Properties properties) {
+        Properties merged = defaults();
+        merged.putAll(properties);
+        return new DatabaseConfig(merged);
+    }
+
+    private static Properties defaults() {
+        Properties properties = new Properties();
+        properties.setProperty("backend", "jdbc");
+        properties.setProperty("log.directory", "calculator-log");
+        properties.setProperty("log.segmentSize", "16777216");
+        properties.setProperty("url", "jdbc:postgresql://localhost:5432/");
+        properties.setProperty("user", "postgres");
+        properties.setProperty("password", "admin");
+        properties.setProperty("databaseName", "calculator_db");
+        properties.setProperty("pool.size", "4");
+        properties.setProperty("pool.connectionTimeoutMillis", "30000");
+        properties.setProperty("pool.validationIntervalMillis", "5000");
+        properties.setProperty("pool.validationTimeoutSeconds", "2");
+        // Leak detection captures stack trace of every borrow, switched on for debugging only
+        properties.setProperty("pool.leakDetectionThresholdMillis", "0");
+        properties.setProperty("fetchSize", "500");
+        properties.setProperty("rootTolerance", "1e-9");
+        properties.setProperty("rootIndex.enabled", "true");
+        properties.setProperty("rootWriter.batchSize", "100");
+        properties.setProperty("rootWriter.flushIntervalMillis", "50");
+        properties.setProperty("rootWriter.queueCapacity", "10000");
+        return properties;
+    }
+
+    /**
+     * @return Storage backend: "jdbc" for PostgreSQL, "log" for embedded log files, "memory" for no persistence
+     */
+    public String getBackend() {
+        return properties.getProperty("backend").trim();
+    }
+
+    /**
+     * @return Directory of log files of embedded backend
+     */
+    public Path getLogDirectory() {
+        return Path.of(properties.getProperty("log.directory").trim());
+    }
+
+    /**
+     * @return Size of one log file of embedded backend, in bytes
+     */
+    public int getLogSegmentSize() {
+        return getInt("log.segmentSize");
+    }
+
+    /**
+     * @return Url of PostgreSQL server, without database name
+     */
+    public String getUrl() {
+        return properties.getProperty("url");
+    }
+
+    public String getUser() {
+        return properties.getProperty("user");
+    }
+
+    public String getPassword() {
+        return properties.getProperty("password");
+    }
+
+    public String getDatabaseName() {
+        return properties.getProperty("databaseName");
+    }
+
+    /**
+     * @return Url of calculator database
+     */
+    public String getDatabaseUrl() {
+        return getUrl() + getDatabaseName();
+    }
+
+    /**
+     * @return Maximum number of open connections
+     */
+    public int getPoolSize() {
+        return getInt("pool.size");
+    }
+
+    /**
+     * @return How long to wait for free connection before failing
+     */
+    public long getConnectionTimeoutMillis() {
+        return getLong("pool.connectionTimeoutMillis");
+    }
+
+    /**
+     * @return Connections idle for longer than this are validated before they are handed out
+     */
+    public long getValidationIntervalMillis() {
+        return getLong("pool.validationIntervalMillis");
+    }
+
+    public int getValidationTimeoutSeconds() {
+        return getInt("pool.validationTimeoutSeconds");
+    }
+
+    /**
+     * @return Connections held for longer than this are reported as leaked, 0 disables leak detection
+     */
+    public long getLeakDetectionThresholdMillis() {
+        return getLong("pool.leakDetectionThresholdMillis");
+    }
+
+    /**
+     * @return Roots closer than this (relative to root for roots greater than 1) are treated as equal
+     */
+    public double getRootTolerance() {
+        return Double.parseDouble(properties.getProperty("rootTolerance").trim());
+    }
+
+    /**
+     * @return Whether roots are loaded into memory at startup and searched there
+     */
+    public boolean isRootIndexEnabled() {
+        return Boolean.parseBoolean(properties.getProperty("rootIndex.enabled").trim());
+    }
+
+    /**
+     * @return Number of rows fetched at once by streaming queries
+     */
+    public int getFetchSize() {
+        return getInt("fetchSize");
+    }
+
+    /**
+     * @return Maximum number of roots written in one JDBC batch
+     */
+    public int getRootWriterBatchSize() {
+        return getInt("rootWriter.batchSize");
+    }
+
+    /**
+     * @return Longest time a queued root waits for its batch to fill up
+     */
+    public long getRootWriterFlushIntervalMillis() {
+        return getLong("rootWriter.flushIntervalMillis");
+    }
+
+    /**
+     * @return Number of queued roots after which callers block
+     */
+    public int getRootWriterQueueCapacity() {
+        return getInt("rootWriter.queueCapacity");
+    }
+
+    /**
+     * @param name Name of setting, without gfl.db. prefix
+     * @return Value of setting or null
+     */
+    public String get(String name) {
+        return properties.getProperty(name);
+    }
+
+    int getInt(String name) {
+        return Integer.parseInt(properties.getProperty(name).trim());
+    }
+
+    long getLong(String name) {
+        return Long.parseLong(properties.getProperty(name).trim());
+    }
+}
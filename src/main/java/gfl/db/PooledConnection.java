@@ -0,0 +1,91 @@
+package gfl.db;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.HashMap;
+
+/**
+ * Connection borrowed from {@link ConnectionPool}. Prepared statements are kept open for the life of
+ * the physical connection and reused by every borrower, so they must not be closed by callers
+ */
+public class PooledConnection implements AutoCloseable {
+
+    private final ConnectionPool pool;
+    private final Connection connection;
+    private final HashMap<String, PreparedStatement> statements = new HashMap<>();
+
+    volatile long borrowedAt;
+    volatile long releasedAt;
+    // Stack trace of borrower for leak detection
+    volatile Exception borrowedBy;
+    volatile boolean leakReported;
+    private boolean broken;
+
+    PooledConnection(ConnectionPool pool, Connection connection) {
+        this.pool = pool;
+        this.connection = connection;
+    }
+
+    /**
+     * @param sql Sql query
+     * @return Prepared statement of this connection with cleared parameters, do not close it
+     * @throws SQLException
+     */
+    public PreparedStatement prepareStatement(String sql) throws SQLException {
+        PreparedStatement statement = statements.get(sql);
+        if (statement == null || statement.isClosed()) {
+            statement = connection.prepareStatement(sql);
+            statements.put(sql, statement);
+        } else {
+            statement.clearParameters();
+            statement.clearBatch();
+        }
+        return statement;
+    }
+
+    /**
+     * @return Physical connection, for operations that are not covered by this wrapper
+     */
+    public Connection getConnection() {
+        return connection;
+    }
+
+    /**
+     * Drops physical connection when it is returned, for connections left in unknown state
+     */
+    public void markBroken() {
+        broken = true;
+    }
+
+    boolean isBroken() {
+        if (broken) {
+            return true;
+        }
+        try {
+            return connection.isClosed() || !connection.getAutoCommit();
+        } catch (SQLException e) {
+            return true;
+        }
+    }
+
+    /**
+     * Returns connection to pool
+     */
+    @Override
+    public void close() {
+        pool.release(this);
+    }
+
+    void closePhysically() {
+        for (PreparedStatement statement : statements.values()) {
+            try {
+                statement.close();
+            } catch (SQLException e) {
+                // Statement is dropped anyway
+            }
+        }
+        statements.clear();
+        ConnectionPool.closeQuietly(connection);
+    }
+}
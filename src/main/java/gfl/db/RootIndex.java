@@ -0,0 +1,176 @@
+package gfl.db;
+
+import java.util.Arrays;
+
+/**
+ * In-memory index of known roots: sorted primitive arrays of root values and their equation ids.
+ * Readers work on an immutable snapshot without locks, writers replace snapshot with a modified copy
+ */
+public class RootIndex {
+
+    /**
+     * Roots sorted by value, then by equation id
+     */
+    private record Snapshot(double[] values, int[] equationIds) {
+    }
+
+    private static final Snapshot EMPTY = new Snapshot(new double[0], new int[0]);
+
+    private volatile Snapshot snapshot = EMPTY;
+
+    /**
+     * Replaces content of index
+     *
+     * @param values      Roots, sorted ascending
+     * @param equationIds Equation ids of roots, sorted ascending for equal roots
+     * @param size        Number of roots in arrays
+     */
+    public void load(double[] values, int[] equationIds, int size) {
+        double[] loadedValues = Arrays.copyOf(values, size);
+        int[] loadedEquationIds = Arrays.copyOf(equationIds, size);
+        for (int i = 1; i < size; i++) {
+            if (compare(loadedValues[i - 1], loadedEquationIds[i - 1], loadedValues[i], loadedEquationIds[i]) > 0) {
+                throw new IllegalArgumentException("Roots are not sorted at " + i);
+            }
+        }
+        snapshot = new Snapshot(loadedValues, loadedEquationIds);
+    }
+
+    /**
+     * Adds root of equation unless equation already has a root within tolerance of it
+     *
+     * @param equationId Id of equation
+     * @param value      Root
+     * @param tolerance  Roots closer than this are treated as equal
+     * @return true if root was added
+     */
+    public synchronized boolean add(int equationId, double value, double tolerance) {
+        if (Double.isNaN(value)) {
+            return false;
+        }
+        Snapshot current = snapshot;
+        double[] values = current.values();
+        int[] equationIds = current.equationIds();
+
+        for (int i = lowerBound(values, value - tolerance); i < values.length && values[i] <= value + tolerance; i++) {
+            if (equationIds[i] == equationId) {
+                return false;
+            }
+        }
+
+        // Position after all entries smaller than (value, equationId)
+        int position = lowerBound(values, value);
+        while (position < values.length && values[position] == value && equationIds[position] < equationId) {
+            position++;
+        }
+
+        double[] newValues = new double[values.length + 1];
+        int[] newEquationIds = new int[values.length + 1];
+        System.arraycopy(values, 0, newValues, 0, position);
+        System.arraycopy(equationIds, 0, newEquationIds, 0, position);
+        newValues[position] = value;
+        newEquationIds[position] = equationId;
+        System.arraycopy(values, position, newValues, position + 1, values.length - position);
+        System.arraycopy(equationIds, position, newEquationIds, position + 1, values.length - position);
+        snapshot = new Snapshot(newValues, newEquationIds);
+        return true;
+    }
+
+    /**
+     * Removes root of equation added by {@link #add(int, double, double)}
+     *
+     * @param equationId Id of equation
+     * @param value      Root
+     * @return true if root was in index
+     */
+    public synchronized boolean remove(int equationId, double value) {
+        Snapshot current = snapshot;
+        double[] values = current.values();
+        int[] equationIds = current.equationIds();
+
+        int position = lowerBound(values, value);
+        while (position < values.length && values[position] == value && equationIds[position] != equationId) {
+            position++;
+        }
+        if (position == values.length || values[position] != value) {
+            return false;
+        }
+
+        double[] newValues = new double[values.length - 1];
+        int[] newEquationIds = new int[values.length - 1];
+        System.arraycopy(values, 0, newValues, 0, position);
+        System.arraycopy(equationIds, 0, newEquationIds, 0, position);
+        System.arraycopy(values, position + 1, newValues, position, values.length - position - 1);
+        System.arraycopy(equationIds, position + 1, newEquationIds, position, values.length - position - 1);
+        snapshot = new Snapshot(newValues, newEquationIds);
+        return true;
+    }
+
+    /**
+     * @param value Root
+     * @return Ids of equations having exactly this root, ascending
+     */
+    public int[] findExact(double value) {
+        return findRange(value, value);
+    }
+
+    /**
+     * @param from Lower bound of root, inclusive
+     * @param to   Upper bound of root, inclusive
+     * @return Distinct ids of equations having root in [from, to], ascending
+     */
+    public int[] findRange(double from, double to) {
+        Snapshot current = snapshot;
+        double[] values = current.values();
+        int[] equationIds = current.equationIds();
+
+        int start = lowerBound(values, from);
+        int end = start;
+        while (end < values.length && values[end] <= to) {
+            end++;
+        }
+        if (start == end) {
+            return new int[0];
+        }
+
+        int[] found = Arrays.copyOfRange(equationIds, start, end);
+        Arrays.sort(found);
+        int distinct = 1;
+        for (int i = 1; i < found.length; i++) {
+            if (found[i] != found[distinct - 1]) {
+                found[distinct++] = found[i];
+            }
+        }
+        return distinct == found.length ? found : Arrays.copyOf(found, distinct);
+    }
+
+    /**
+     * @return Number of roots in index
+     */
+    public int size() {
+        return snapshot.values().length;
+    }
+
+    /**
+     * @return Index of first value not less than key
+     */
+    private static int lowerBound(double[] values, double key) {
+        int low = 0;
+        int high = values.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (values[middle] < key) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private static int compare(double firstValue, int firstEquationId, double secondValue, int secondEquationId) {
+        if (firstValue < secondValue) return -1;
+        if (firstValue > secondValue) return 1;
+        return Integer.compare(firstEquationId, secondEquationId);
+    }
+}
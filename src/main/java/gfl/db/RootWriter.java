@@ -0,0 +1,256 @@
+package gfl.db;
+
+import java.sql.BatchUpdateException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Write-behind queue of root inserts. Roots are written by a background thread in JDBC batches, a batch is sent
+ * when it is full or when its oldest root waited for flush interval. Callers block when queue is full
+ */
+public class RootWriter implements AutoCloseable {
+
+    /**
+     * Root waiting to be written, or a marker completed when everything before it is written
+     */
+    private record PendingRoot(int equationId, double value, CompletableFuture<Void> future, boolean isMarker) {
+    }
+
+    private final ConnectionPool pool;
+    private final String insertSql;
+    private final Binder binder;
+    private final int batchSize;
+    private final long flushIntervalMillis;
+    private final ArrayBlockingQueue<PendingRoot> queue;
+    private final Thread worker;
+
+    private volatile boolean closed;
+    // Roots are queued under read lock and closed is set under write lock,
+    // so nothing is queued after last check of worker
+    private final ReentrantReadWriteLock closeLock = new ReentrantReadWriteLock();
+
+    /**
+     * Sets parameters of insert for one root
+     */
+    @FunctionalInterface
+    public interface Binder {
+        void bind(PreparedStatement preparedStatement, int equationId, double value) throws SQLException;
+    }
+
+    /**
+     * @param pool      Pool of connections to database
+     * @param insertSql Insert of one root, must ignore duplicates
+     * @param binder    Sets parameters of insert
+     * @param config    Batch size, flush interval and queue capacity
+     */
+    public RootWriter(ConnectionPool pool, String insertSql, Binder binder, DatabaseConfig config) {
+        this.pool = pool;
+        this.insertSql = insertSql;
+        this.binder = binder;
+        this.batchSize = config.getRootWriterBatchSize();
+        this.flushIntervalMillis = config.getRootWriterFlushIntervalMillis();
+        this.queue = new ArrayBlockingQueue<>(config.getRootWriterQueueCapacity());
+
+        worker = new Thread(this::run, "root-writer");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    /**
+     * Queues root, blocks while queue is full
+     *
+     * @param equationId Id of equation
+     * @param value      Root
+     * @return Future completed when root is written, or exceptionally if insert failed
+     */
+    public CompletableFuture<Void> submit(int equationId, double value) {
+        return enqueue(new PendingRoot(equationId, value, new CompletableFuture<>(), false));
+    }
+
+    /**
+     * @return Future completed when every root queued before this call is written, completed at once after close
+     */
+    public CompletableFuture<Void> flushAsync() {
+        if (closed) {
+            return CompletableFuture.completedFuture(null);
+        }
+        return enqueue(new PendingRoot(0, 0, new CompletableFuture<>(), true));
+    }
+
+    /**
+     * Waits until every root queued before this call is written, does nothing after close
+     */
+    public void flush() {
+        // Batch taken by worker may still be in flight even if queue is empty, the marker waits for it too
+        flushAsync().join();
+    }
+
+    /**
+     * @return Number of roots waiting in queue
+     */
+    public int getQueueSize() {
+        return queue.size();
+    }
+
+    /**
+     * Stops accepting roots and waits until queued roots are written
+     */
+    @Override
+    public void close() {
+        // Worker is not interrupted: an interrupt reaching it inside write() would fail every pooled connection
+        // request of the batch, it sees the flag after its current poll times out instead
+        closeLock.writeLock().lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+        } finally {
+            closeLock.writeLock().unlock();
+        }
+        boolean interrupted = false;
+        while (worker.isAlive()) {
+            try {
+                worker.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        // Left only if worker thread died of an Error
+        ArrayList<PendingRoot> rejected = new ArrayList<>();
+        queue.drainTo(rejected);
+        rejected.forEach(root -> root.future().completeExceptionally(new IllegalStateException("Root writer is closed")));
+    }
+
+    private CompletableFuture<Void> enqueue(PendingRoot pendingRoot) {
+        closeLock.readLock().lock();
+        try {
+            if (closed) {
+                return CompletableFuture.failedFuture(new IllegalStateException("Root writer is closed"));
+            }
+            // Close waits for this put, worker keeps draining queue until closed is set
+            queue.put(pendingRoot);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return CompletableFuture.failedFuture(e);
+        } finally {
+            closeLock.readLock().unlock();
+        }
+        return pendingRoot.future();
+    }
+
+    private void run() {
+        ArrayList<PendingRoot> batch = new ArrayList<>(batchSize);
+        while (!closed || !queue.isEmpty()) {
+            try {
+                PendingRoot first = queue.poll(flushIntervalMillis, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(flushIntervalMillis);
+                while (batch.size() < batchSize && !first.isMarker() && !batch.get(batch.size() - 1).isMarker()) {
+                    long remaining = deadline - System.nanoTime();
+                    PendingRoot next = remaining > 0 ? queue.poll(remaining, TimeUnit.NANOSECONDS) : queue.poll();
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+            } catch (InterruptedException e) {
+                // Interrupt clears the flag, so taken roots are still written
+                queue.drainTo(batch, batchSize - batch.size());
+            }
+            if (!batch.isEmpty()) {
+                try {
+                    write(batch);
+                } catch (RuntimeException e) {
+                    // Worker must survive, otherwise every later flush waits forever
+                    for (PendingRoot pendingRoot : batch) {
+                        if (pendingRoot.isMarker()) {
+                            pendingRoot.future().complete(null);
+                        } else {
+                            pendingRoot.future().completeExceptionally(e);
+                        }
+                    }
+                }
+                batch.clear();
+            }
+        }
+    }
+
+    private void write(ArrayList<PendingRoot> batch) {
+        ArrayList<PendingRoot> roots = new ArrayList<>(batch.size());
+        for (PendingRoot pendingRoot : batch) {
+            if (!pendingRoot.isMarker()) {
+                roots.add(pendingRoot);
+            }
+        }
+
+        if (!roots.isEmpty()) {
+            try {
+                writeBatch(roots);
+                roots.forEach(root -> root.future().complete(null));
+            } catch (SQLException batchException) {
+                // One bad root fails whole batch, write them one by one to fail only that root
+                for (PendingRoot root : roots) {
+                    try {
+                        writeBatch(List.of(root));
+                        root.future().complete(null);
+                    } catch (SQLException e) {
+                        root.future().completeExceptionally(e);
+                    }
+                }
+            }
+        }
+
+        for (PendingRoot pendingRoot : batch) {
+            if (pendingRoot.isMarker()) {
+                pendingRoot.future().complete(null);
+            }
+        }
+    }
+
+    private void writeBatch(List<PendingRoot> roots) throws SQLException {
+        try (PooledConnection pooledConnection = pool.getConnection()) {
+            Connection connection = pooledConnection.getConnection();
+            // One commit for the whole batch
+            connection.setAutoCommit(false);
+            try {
+                PreparedStatement preparedStatement = pooledConnection.prepareStatement(insertSql);
+                for (PendingRoot root : roots) {
+                    binder.bind(preparedStatement, root.equationId(), root.value());
+                    preparedStatement.addBatch();
+                }
+                preparedStatement.executeBatch();
+                connection.commit();
+            } catch (SQLException e) {
+                try {
+                    connection.rollback();
+                } catch (SQLException rollbackException) {
+                    pooledConnection.markBroken();
+                }
+                if (e instanceof BatchUpdateException && e.getNextException() != null) {
+                    throw e.getNextException();
+                }
+                throw e;
+            } finally {
+                try {
+                    connection.setAutoCommit(true);
+                } catch (SQLException e) {
+                    pooledConnection.markBroken();
+                }
+            }
+        }
+    }
+}
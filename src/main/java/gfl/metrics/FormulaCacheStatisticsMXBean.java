@@ -0,0 +1,23 @@
+package gfl.metrics;
+
+/**
+ * Counters of all formula caches of calculators, registered as gfl:type=FormulaCache
+ */
+public interface FormulaCacheStatisticsMXBean {
+
+    long getHitCount();
+
+    long getMissCount();
+
+    long getEvictionCount();
+
+    /**
+     * @return Hits divided by lookups, 1 if there were no lookups
+     */
+    double getHitRatio();
+
+    /**
+     * @return Number of cached formulas
+     */
+    long getSize();
+}
@@ -0,0 +1,126 @@
+package gfl.metrics;
+
+import gfl.calculator.FormulaCache;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Registry of timers and formula caches, published as MXBeans under "gfl" domain.
+ * Switched on with -Dgfl.metrics=true, JFR events are emitted additionally with -Dgfl.metrics.jfr=true.
+ * Flags are constants, so with metrics disabled JIT removes measuring code from hot paths
+ */
+abstract public class Metrics {
+
+    public static final boolean ENABLED = Boolean.getBoolean("gfl.metrics");
+    public static final boolean JFR_ENABLED = ENABLED && Boolean.getBoolean("gfl.metrics.jfr");
+
+    static final String DOMAIN = "gfl";
+
+    private static final ConcurrentHashMap<String, Timer> timers = new ConcurrentHashMap<>();
+
+    // Caches are not kept alive by metrics
+    private static final CopyOnWriteArrayList<WeakReference<FormulaCache>> caches = new CopyOnWriteArrayList<>();
+
+    static {
+        if (ENABLED) {
+            register("type=FormulaCache", new CacheStatistics());
+        }
+    }
+
+    /**
+     * @return Start of measured operation, 0 if metrics are disabled
+     */
+    public static long start() {
+        return ENABLED ? System.nanoTime() : 0;
+    }
+
+    /**
+     * @param name Name of operation
+     * @return Timer of operation, created and registered as MXBean on first call
+     */
+    public static Timer timer(String name) {
+        return timers.computeIfAbsent(name, key -> {
+            Timer timer = new Timer(key);
+            if (ENABLED) {
+                register("type=Timer,name=" + ObjectName.quote(key), timer);
+            }
+            return timer;
+        });
+    }
+
+    public static Collection<Timer> getTimers() {
+        return new ArrayList<>(timers.values());
+    }
+
+    /**
+     * Adds cache to statistics of formula caches
+     */
+    public static void registerCache(FormulaCache cache) {
+        if (!ENABLED) {
+            return;
+        }
+        caches.removeIf(reference -> reference.get() == null);
+        caches.add(new WeakReference<>(cache));
+    }
+
+    private static void register(String properties, Object bean) {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(bean, new ObjectName(DOMAIN + ":" + properties));
+        } catch (JMException e) {
+            // Already registered by another copy of these classes, metrics are still recorded
+        }
+    }
+
+    private static class CacheStatistics implements FormulaCacheStatisticsMXBean {
+
+        private interface Counter {
+            long of(FormulaCache cache);
+        }
+
+        private long sum(Counter counter) {
+            long sum = 0;
+            for (WeakReference<FormulaCache> reference : caches) {
+                FormulaCache cache = reference.get();
+                if (cache != null) {
+                    sum += counter.of(cache);
+                }
+            }
+            return sum;
+        }
+
+        @Override
+        public long getHitCount() {
+            return sum(FormulaCache::getHitCount);
+        }
+
+        @Override
+        public long getMissCount() {
+            return sum(FormulaCache::getMissCount);
+        }
+
+        @Override
+        public long getEvictionCount() {
+            return sum(FormulaCache::getEvictionCount);
+        }
+
+        @Override
+        public double getHitRatio() {
+            long hits = getHitCount();
+            long lookups = hits + getMissCount();
+            // Same as FormulaCache#getHitRatio()
+            return lookups == 0 ? 1. : (double) hits / lookups;
+        }
+
+        @Override
+        public long getSize() {
+            return sum(FormulaCache::size);
+        }
+    }
+}
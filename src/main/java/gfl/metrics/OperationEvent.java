@@ -0,0 +1,26 @@
+package gfl.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * JFR event of one measured operation, emitted when -Dgfl.metrics.jfr=true
+ */
+@Name("gfl.Operation")
+@Label("Calculator Operation")
+@Category("Calculator")
+@Description("Parse, evaluation or database call")
+@StackTrace(false)
+class OperationEvent extends jdk.jfr.Event {
+
+    @Label("Operation")
+    String operation;
+
+    @Label("Latency")
+    @Timespan(Timespan.NANOSECONDS)
+    long latency;
+}
@@ -0,0 +1,127 @@
+package gfl.metrics;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latency histogram and error counts of one operation. Measured code follows the pattern
+ * <pre>
+ * long start = Metrics.start();
+ * try {
+ *     ...
+ * } catch (SomeException e) {
+ *     TIMER.error(e);
+ *     throw e;
+ * } finally {
+ *     TIMER.stop(start);
+ * }
+ * </pre>
+ * which does nothing when metrics are disabled, see {@link Metrics#ENABLED}
+ */
+public class Timer implements TimerMXBean {
+
+    private final String name;
+    private final LatencyHistogram histogram = new LatencyHistogram();
+    private final ConcurrentHashMap<String, LongAdder> errors = new ConcurrentHashMap<>();
+
+    Timer(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Records latency of operation started at start
+     *
+     * @param start Value returned by {@link Metrics#start()}
+     */
+    public void stop(long start) {
+        if (!Metrics.ENABLED) {
+            return;
+        }
+        record(System.nanoTime() - start);
+    }
+
+    /**
+     * Counts error of operation by class of exception
+     */
+    public void error(Throwable error) {
+        if (!Metrics.ENABLED) {
+            return;
+        }
+        errors.computeIfAbsent(error.getClass().getName(), key -> new LongAdder()).increment();
+    }
+
+    /**
+     * @param nanos Latency of operation in nanoseconds
+     */
+    void record(long nanos) {
+        histogram.record(nanos);
+        if (Metrics.JFR_ENABLED) {
+            OperationEvent event = new OperationEvent();
+            event.operation = name;
+            event.latency = nanos;
+            event.commit();
+        }
+    }
+
+    public LatencyHistogram getHistogram() {
+        return histogram;
+    }
+
+    @Override
+    public long getCount() {
+        return histogram.getCount();
+    }
+
+    @Override
+    public long getErrorCount() {
+        long count = 0;
+        for (LongAdder error : errors.values()) {
+            count += error.sum();
+        }
+        return count;
+    }
+
+    @Override
+    public Map<String, Long> getErrors() {
+        TreeMap<String, Long> counts = new TreeMap<>();
+        errors.forEach((type, count) -> counts.put(type, count.sum()));
+        return counts;
+    }
+
+    @Override
+    public double getMeanMicros() {
+        return histogram.getMean() / 1e3;
+    }
+
+    @Override
+    public double getP50Micros() {
+        return histogram.getPercentile(50) / 1e3;
+    }
+
+    @Override
+    public double getP90Micros() {
+        return histogram.getPercentile(90) / 1e3;
+    }
+
+    @Override
+    public double getP99Micros() {
+        return histogram.getPercentile(99) / 1e3;
+    }
+
+    @Override
+    public double getMaxMicros() {
+        return histogram.getMax() / 1e3;
+    }
+
+    @Override
+    public void reset() {
+        histogram.reset();
+        errors.clear();
+    }
+}
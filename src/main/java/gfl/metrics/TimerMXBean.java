@@ -0,0 +1,30 @@
+package gfl.metrics;
+
+import java.util.Map;
+
+/**
+ * Latency and errors of one operation, registered as gfl:type=Timer,name=&lt;operation&gt;
+ */
+public interface TimerMXBean {
+
+    long getCount();
+
+    long getErrorCount();
+
+    /**
+     * @return Number of errors by class name of exception
+     */
+    Map<String, Long> getErrors();
+
+    double getMeanMicros();
+
+    double getP50Micros();
+
+    double getP90Micros();
+
+    double getP99Micros();
+
+    double getMaxMicros();
+
+    void reset();
+}
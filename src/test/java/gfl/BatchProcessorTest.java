@@ -0,0 +1,58 @@
+package gfl;
+
+import org.junit.jupiter.api.*;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BatchProcessorTest {
+
+    String process(String input, BatchProcessor processor) throws IOException {
+        StringWriter output = new StringWriter();
+        processor.process(new StringReader(input), output);
+        return output.toString();
+    }
+
+    @Test
+    @DisplayName("Verifies candidate roots and solves equations in order of input")
+    void csv() throws IOException {
+        BatchProcessor processor = new BatchProcessor(BatchProcessor.Format.CSV, 2, null);
+        String output = process("2*x+5=17;6;7\n\nx*x=4\nx+=1\n", processor);
+        String[] lines = output.split("\n");
+        assertEquals(4, lines.length);
+        assertEquals("line,equation,status,roots,rejected,message", lines[0]);
+        assertEquals("1,2*x+5=17,ok,6.0,7.0,", lines[1]);
+        assertEquals("3,x*x=4,ok,-2.0 2.0,,", lines[2]);
+        assertTrue(lines[3].startsWith("4,x+=1,error,,,"));
+
+        assertEquals(3, processor.getLineCount());
+        assertEquals(1, processor.getErrorCount());
+        assertEquals(2, processor.getCheckedRootCount());
+        assertEquals(1, processor.getCorrectRootCount());
+        assertEquals(2, processor.getFoundRootCount());
+    }
+
+    @Test
+    @DisplayName("Writes one JSON object per line")
+    void json() throws IOException {
+        BatchProcessor processor = new BatchProcessor(BatchProcessor.Format.JSON, 1, null);
+        assertEquals("{\"line\":1,\"equation\":\"x/2=1\",\"status\":\"ok\",\"roots\":[2.0],\"rejected\":[]}\n",
+                process("x/2=1;2", processor));
+    }
+
+    @Test
+    @DisplayName("Many lines with few workers keep order")
+    void order() throws IOException {
+        StringBuilder input = new StringBuilder();
+        for (int i = 0; i < 200; i++) {
+            input.append("x=").append(i).append(';').append(i).append('\n');
+        }
+        String[] lines = process(input.toString(), new BatchProcessor(BatchProcessor.Format.CSV, 3, null)).split("\n");
+        for (int i = 0; i < 200; i++) {
+            assertTrue(lines[i + 1].startsWith((i + 1) + ",x=" + i + ",ok,"), lines[i + 1]);
+        }
+    }
+}
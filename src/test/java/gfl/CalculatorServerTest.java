@@ -0,0 +1,60 @@
+package gfl;
+
+import org.junit.jupiter.api.*;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CalculatorServerTest {
+
+    static CalculatorServer server;
+    static HttpClient client = HttpClient.newHttpClient();
+
+    @BeforeAll
+    static void start() throws IOException {
+        server = new CalculatorServer(0, 2, 10, new MemoryEquationStorage(1e-9));
+        server.start();
+    }
+
+    @AfterAll
+    static void stop() {
+        server.close();
+    }
+
+    HttpResponse<String> get(String pathAndQuery) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder(URI.create("http://localhost:" + server.getPort() + pathAndQuery)).build();
+        return client.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+
+    @Test
+    @DisplayName("Calculate formula with variables")
+    void calculate() throws IOException, InterruptedException {
+        HttpResponse<String> response = get("/calculate?formula=2*x%2By&x=3&y=1");
+        assertEquals(200, response.statusCode());
+        assertEquals("{\"result\":7.0}", response.body());
+    }
+
+    @Test
+    @DisplayName("Verified roots are found by search")
+    void verifyAndSearch() throws IOException, InterruptedException {
+        assertEquals("{\"equation\":\"3*x=9\",\"x\":3.0,\"correct\":true}", get("/verify?equation=3*x=9&x=3").body());
+        assertEquals("{\"equation\":\"x*x=9\",\"x\":2.0,\"correct\":false}", get("/verify?equation=x*x=9&x=2").body());
+        assertEquals("{\"equations\":[\"3*x=9\"]}", get("/search?root=3").body());
+        assertEquals("{\"equations\":[]}", get("/search?root=2").body());
+    }
+
+    @Test
+    @DisplayName("Wrong requests answer 400 and 405")
+    void errors() throws IOException, InterruptedException {
+        assertEquals(400, get("/calculate?formula=2*x").statusCode());
+        assertEquals(400, get("/verify?equation=x&x=1").statusCode());
+        assertEquals(400, get("/search?root=abc").statusCode());
+        HttpRequest delete = HttpRequest.newBuilder(URI.create("http://localhost:" + server.getPort() + "/search?root=1")).DELETE().build();
+        assertEquals(405, client.send(delete, HttpResponse.BodyHandlers.ofString()).statusCode());
+    }
+}
@@ -0,0 +1,167 @@
+package gfl;
+
+import gfl.db.DatabaseConfig;
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Properties;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LogEquationStorageTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    @DisplayName("Equations and roots are read back after reopening")
+    void reopen() {
+        try (LogEquationStorage storage = new LogEquationStorage(directory, 1 << 16, 1e-9)) {
+            storage.createEquation("2*x=4");
+            storage.createEquation("x*x=4");
+            storage.createEquation("2*x=4");
+            storage.createRoot(1, 2);
+            storage.createRoot(2, 2);
+            storage.createRoot(2, -2);
+            storage.createRoot(2, 2 + 1e-12);
+            storage.createRoot(7, 2);
+        }
+
+        try (LogEquationStorage storage = new LogEquationStorage(directory, 1 << 16, 1e-9)) {
+            assertEquals(5, storage.getReplayedRecordCount());
+            assertEquals(0, storage.getTruncatedRecordCount());
+            assertEquals(1, storage.readEquationId("2*x=4"));
+            assertEquals("x*x=4", storage.readEquation(2));
+            assertNull(storage.readEquation(3));
+            assertArrayEquals(new Integer[]{1, 2}, storage.readAllEquationIdMatchingRoot(2.));
+            assertEquals(List.of("x*x=4"), storage.readAllEquationsMatchingRoot(-2, 0, 0));
+
+            storage.createEquation("x=3");
+            assertEquals(3, storage.readEquationId("x=3"));
+        }
+    }
+
+    @Test
+    @DisplayName("Roots 0.0 and -0.0 are replayed in order of index")
+    void negativeZero() {
+        try (LogEquationStorage storage = new LogEquationStorage(directory, 1 << 16, 1e-9)) {
+            storage.createEquation("x=0");
+            storage.createEquation("2*x=0");
+            storage.createRoot(1, 0.);
+            storage.createRoot(2, -0.);
+        }
+
+        try (LogEquationStorage storage = new LogEquationStorage(directory, 1 << 16, 1e-9)) {
+            assertEquals(4, storage.getReplayedRecordCount());
+            assertArrayEquals(new Integer[]{1, 2}, storage.readAllEquationIdMatchingRoot(0.));
+            assertEquals(List.of("x=0", "2*x=0"), storage.readAllEquationsMatchingRoot(-0., 0, 0));
+        }
+    }
+
+    @Test
+    @DisplayName("Record torn by crash is cut off and log is continued")
+    void tornRecord() throws IOException {
+        try (LogEquationStorage storage = new LogEquationStorage(directory, 1 << 16, 1e-9)) {
+            storage.createEquation("2*x=4");
+            storage.createRoot(1, 2);
+            storage.createEquation("x*x=4");
+        }
+        // Last record gets length but only part of its body
+        Path file = directory.resolve("00000001.log");
+        int lastRecord = LogEquationStorage.RECORD_HEADER_SIZE * 2 + 6 + 13;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.allocate(3), lastRecord + LogEquationStorage.RECORD_HEADER_SIZE + 2);
+        }
+
+        try (LogEquationStorage storage = new LogEquationStorage(directory, 1 << 16, 1e-9)) {
+            assertEquals(2, storage.getReplayedRecordCount());
+            assertEquals(1, storage.getTruncatedRecordCount());
+            assertNull(storage.readEquationId("x*x=4"));
+            assertArrayEquals(new Integer[]{1}, storage.readAllEquationIdMatchingRoot(2.));
+            storage.createEquation("x=3");
+        }
+
+        try (LogEquationStorage storage = new LogEquationStorage(directory, 1 << 16, 1e-9)) {
+            assertEquals(0, storage.getTruncatedRecordCount());
+            assertEquals(2, storage.readEquationId("x=3"));
+        }
+    }
+
+    @Test
+    @DisplayName("Damaged record in earlier log file cuts off later files")
+    void damagedSegment() throws IOException {
+        try (LogEquationStorage storage = new LogEquationStorage(directory, 40, 1e-9)) {
+            for (int i = 1; i <= 6; i++) {
+                storage.createEquation("x=" + i);
+                storage.createRoot(i, i);
+            }
+        }
+        // Checksum of second record of first file, root of x=1
+        Path file = directory.resolve("00000001.log");
+        byte[] bytes = Files.readAllBytes(file);
+        bytes[LogEquationStorage.RECORD_HEADER_SIZE + 4 + 4] ^= 1;
+        Files.write(file, bytes);
+
+        try (LogEquationStorage storage = new LogEquationStorage(directory, 40, 1e-9)) {
+            assertEquals(1, storage.getTruncatedRecordCount());
+            try (var files = Files.list(directory)) {
+                assertEquals(1, files.count());
+            }
+            assertEquals(1, storage.readEquationId("x=1"));
+            assertNull(storage.readEquationId("x=6"));
+            assertEquals(List.of(), storage.readAllEquationsMatchingRoot(6, 0, 0));
+
+            storage.createEquation("x=6");
+            storage.createRoot(2, 6);
+            assertEquals(List.of("x=6"), storage.readAllEquationsMatchingRoot(6, 0, 0));
+        }
+        try (LogEquationStorage storage = new LogEquationStorage(directory, 40, 1e-9)) {
+            assertEquals(2, storage.readEquationId("x=6"));
+            assertEquals(List.of("x=6"), storage.readAllEquationsMatchingRoot(6, 0, 0));
+        }
+    }
+
+    @Test
+    @DisplayName("Full log file is continued by the next one")
+    void segments() throws IOException {
+        try (LogEquationStorage storage = new LogEquationStorage(directory, 64, 1e-9)) {
+            for (int i = 1; i <= 20; i++) {
+                storage.createEquation("x=" + i);
+                storage.createRoot(i, i);
+            }
+            storage.createEquation("x=" + "1".repeat(100));
+        }
+        try (var files = Files.list(directory)) {
+            assertTrue(files.count() > 1);
+        }
+
+        try (LogEquationStorage storage = new LogEquationStorage(directory, 64, 1e-9)) {
+            assertEquals(41, storage.getReplayedRecordCount());
+            for (int i = 1; i <= 20; i++) {
+                assertEquals(List.of("x=" + i), storage.readAllEquationsMatchingRoot(i, 0, 0));
+            }
+            assertEquals(21, storage.readEquationId("x=" + "1".repeat(100)));
+        }
+    }
+
+    @Test
+    @DisplayName("Backend is chosen by config")
+    void backend() {
+        Properties properties = new Properties();
+        properties.setProperty("backend", "log");
+        properties.setProperty("log.directory", directory.toString());
+        try (EquationStorage storage = EquationStorage.open(DatabaseConfig.of(properties))) {
+            assertInstanceOf(LogEquationStorage.class, storage);
+        }
+
+        properties.setProperty("backend", "file");
+        assertThrows(IllegalArgumentException.class, () -> EquationStorage.open(DatabaseConfig.of(properties)));
+    }
+}
@@ -3,8 +3,12 @@ package gfl.calculator;
 import gfl.exceptions.IncorrectFormulaException;
 import gfl.exceptions.LexicalException;
 import org.junit.jupiter.api.*;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Map;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -154,4 +158,227 @@ class CalculatorTest {
 
     }
 
-}
\ No newline at end of file
+
+    @Nested
+    class EnginesTests {
+
+        @ParameterizedTest
+        @DisplayName("Compiled engines match tree engine, x=7")
+        @ValueSource(strings = {"2+2", "-3+4.", "5/9/4", "-3-(-3)", "-x+(x-(-2*x+3))", "x*x-4*x+1/x", "x/9-x*3"})
+        void sameResults(String formula) throws LexicalException, IncorrectFormulaException {
+            variables = new HashMap<>();
+            variables.put("x", 7.);
+            Calculator treeCalculator = new Calculator(Calculator.Engine.TREE);
+            Calculator rpnCalculator = new Calculator(Calculator.Engine.RPN);
+            Calculator bytecodeCalculator = new Calculator(Calculator.Engine.BYTECODE);
+            Calculator tieredCalculator = new Calculator(Calculator.Engine.TIERED);
+
+            double expected = treeCalculator.calculate(formula, variables);
+            assertEquals(expected, rpnCalculator.calculate(formula, variables));
+            assertEquals(expected, bytecodeCalculator.calculate(formula, variables));
+            assertEquals(expected, tieredCalculator.calculate(formula, variables));
+        }
+
+        @Test
+        @DisplayName("Bytecode engine 2+2/0")
+        void bytecodeZeroDivision() {
+            Calculator bytecodeCalculator = new Calculator(Calculator.Engine.BYTECODE);
+            assertThrowsExactly(ArithmeticException.class, () -> bytecodeCalculator.calculate("2+2/0", new HashMap<>()));
+            assertThrowsExactly(IncorrectFormulaException.class, () -> bytecodeCalculator.calculate("2+a", new HashMap<>()));
+        }
+    }
+
+    @Nested
+    class TieredTests {
+
+        @Test
+        @DisplayName("x*x-3 is compiled after threshold and gives same results")
+        void promotion() throws LexicalException, IncorrectFormulaException, InterruptedException {
+            Calculator tieredCalculator = new Calculator(Calculator.Engine.TIERED);
+            tieredCalculator.setPromotionThreshold(10);
+            FormulaTree formulaTree = tieredCalculator.createOrReturnFormulaTree("x*x-3");
+            Bindings bindings = formulaTree.newBindings();
+
+            for (int i = 0; i < 9; i++) {
+                assertEquals(i * i - 3, tieredCalculator.calculateFormulaThree(formulaTree, bindings.set("x", i)));
+            }
+            assertFalse(formulaTree.isCompiledToBytecode());
+            assertEquals(0, tieredCalculator.getPromotionCount());
+
+            assertEquals(6, tieredCalculator.calculateFormulaThree(formulaTree, bindings.set("x", 3)));
+            for (int wait = 0; wait < 500 && tieredCalculator.getPromotionCount() == 0; wait++) {
+                Thread.sleep(10);
+            }
+            assertTrue(formulaTree.isCompiledToBytecode());
+            assertEquals(1, tieredCalculator.getPromotionCount());
+
+            assertEquals(22, tieredCalculator.calculateFormulaThree(formulaTree, bindings.set("x", 5)));
+            assertEquals(Map.of("x*x-3", 11L), tieredCalculator.getEvaluationCounts());
+        }
+    }
+
+    @Nested
+    class ParallelTests {
+
+        @Test
+        @DisplayName("10000 pairs of x*k+y match sequential evaluation")
+        void calculateAll() throws LexicalException, IncorrectFormulaException {
+            int count = 10_000;
+            FormulaTree[] formulaTrees = new FormulaTree[count];
+            Bindings[] bindings = new Bindings[count];
+            for (int i = 0; i < count; i++) {
+                formulaTrees[i] = calculator.createOrReturnFormulaTree("x*" + (i % 7) + "+y");
+                bindings[i] = formulaTrees[i].newBindings().set("x", i).set("y", 1);
+            }
+            double[] out = new double[count];
+            calculator.calculateAll(formulaTrees, bindings, out, ZeroDivisionMode.THROW);
+            for (int i = 0; i < count; i++) {
+                assertEquals(calculator.calculateFormulaThree(formulaTrees[i], bindings[i]), out[i]);
+            }
+        }
+
+        @Test
+        @DisplayName("Zero division and unset variable")
+        void errors() throws LexicalException, IncorrectFormulaException {
+            FormulaTree division = calculator.createOrReturnFormulaTree("1/x");
+            FormulaTree[] formulaTrees = new FormulaTree[1000];
+            Bindings[] bindings = new Bindings[1000];
+            for (int i = 0; i < 1000; i++) {
+                formulaTrees[i] = division;
+                bindings[i] = division.newBindings().set("x", i);
+            }
+            double[] out = new double[1000];
+            assertThrows(ArithmeticException.class, () -> calculator.calculateAll(formulaTrees, bindings, out, ZeroDivisionMode.THROW));
+
+            calculator.calculateAll(formulaTrees, bindings, out, ZeroDivisionMode.NAN);
+            assertTrue(Double.isNaN(out[0]));
+            assertEquals(0.5, out[2]);
+
+            bindings[500] = division.newBindings();
+            assertThrowsExactly(IncorrectFormulaException.class, () -> calculator.calculateAll(formulaTrees, bindings, out, ZeroDivisionMode.NAN));
+        }
+
+        @Test
+        @DisplayName("Tokens passed to createFormulaTree are not changed")
+        void tokensNotChanged() throws LexicalException, IncorrectFormulaException {
+            ArrayList<Token> tokens = LexicalAnalyzer.tokenize("1-x*2");
+            ArrayList<Token> copy = new ArrayList<>(tokens);
+            FormulaTree formulaTree = FormulaTree.createFormulaTree(tokens);
+            assertEquals(copy, tokens);
+            assertEquals(-5, calculator.calculateFormulaThree(formulaTree, formulaTree.newBindings().set("x", 3)));
+        }
+    }
+
+    @Nested
+    class SlotsTests {
+
+        @Test
+        @DisplayName("x*y-x, bindings and slots")
+        void calculateWithSlots() throws LexicalException, IncorrectFormulaException {
+            FormulaTree formulaTree = calculator.createOrReturnFormulaTree("x*y-x");
+            int xSlot = formulaTree.getVariableSlot("x");
+            int ySlot = formulaTree.getVariableSlot("y");
+            assertEquals(-1, formulaTree.getVariableSlot("z"));
+
+            double[] values = new double[2];
+            values[xSlot] = 3;
+            values[ySlot] = 5;
+            assertEquals(3 * 5 - 3, calculator.calculateFormulaThree(formulaTree, values));
+
+            Bindings bindings = formulaTree.newBindings().set("x", 2);
+            assertThrowsExactly(IncorrectFormulaException.class, () -> calculator.calculateFormulaThree(formulaTree, bindings));
+            bindings.set(ySlot, 10);
+            assertEquals(2 * 10 - 2, calculator.calculateFormulaThree(formulaTree, bindings));
+        }
+    }
+
+    @Nested
+    class BatchTests {
+
+        @Test
+        @DisplayName("x*x-4*x+1/(x+3) over column matches single evaluation")
+        void calculateBatch() throws LexicalException, IncorrectFormulaException {
+            FormulaTree formulaTree = calculator.createOrReturnFormulaTree("x*x-4*x+1/(x+3)");
+            double[] column = new double[1500];
+            for (int i = 0; i < column.length; i++) {
+                column[i] = i * 0.25 - 100;
+            }
+            double[] out = new double[column.length];
+            calculator.calculateBatch(formulaTree, "x", column, out, ZeroDivisionMode.NAN);
+
+            for (int i = 0; i < column.length; i++) {
+                if (column[i] == -3) {
+                    assertTrue(Double.isNaN(out[i]));
+                    continue;
+                }
+                assertEquals(calculator.calculateFormulaThree(formulaTree, new double[]{column[i]}), out[i]);
+            }
+
+            assertThrowsExactly(ArithmeticException.class, () -> calculator.calculateBatch(formulaTree, "x", column, out, ZeroDivisionMode.THROW));
+        }
+    }
+
+    @Nested
+    class SharedSubexpressionsTests {
+
+        @Test
+        @DisplayName("Equal formulas share nodes")
+        void shareNodes() throws LexicalException, IncorrectFormulaException {
+            FormulaTree first = FormulaTree.createFormulaTree(LexicalAnalyzer.tokenize("(x*x+1)/(x-2)"));
+            FormulaTree second = FormulaTree.createFormulaTree(LexicalAnalyzer.tokenize("3*(x*x+1)"));
+            assertSame(first.firstNode.left, second.firstNode.right);
+        }
+
+        /**
+         * @return Number of instructions with opcode in postfix program
+         */
+        int countOpcodes(CompiledFormula compiled, int opcode) {
+            int count = 0;
+            for (int i = 0; i < compiled.code.length; i++) {
+                if (compiled.code[i] == opcode) {
+                    count++;
+                }
+                // Skip operand
+                switch (compiled.code[i]) {
+                    case CompiledFormula.PUSH_CONSTANT, CompiledFormula.LOAD_VARIABLE,
+                            CompiledFormula.STORE_TEMPORARY, CompiledFormula.LOAD_TEMPORARY -> i++;
+                }
+            }
+            return count;
+        }
+
+        // TREE engine walks shared nodes at every use, only compiled engines compute them once
+        @ParameterizedTest
+        @DisplayName("(x*x+1)*(x*x+1)-(x*x+1), shared subexpression is computed once")
+        @ValueSource(strings = {"RPN", "BYTECODE"})
+        void computeOnce(String engine) throws LexicalException, IncorrectFormulaException {
+            Calculator engineCalculator = new Calculator(Calculator.Engine.valueOf(engine));
+            FormulaTree formulaTree = engineCalculator.createOrReturnFormulaTree("(x*x+1)*(x*x+1)-(x*x+1)");
+            CompiledFormula compiled = formulaTree.compile();
+            assertEquals(1, compiled.temporaryCount);
+            // x*x+1 once, then its square
+            assertEquals(1, countOpcodes(compiled, CompiledFormula.ADD));
+            assertEquals(2, countOpcodes(compiled, CompiledFormula.MULTIPLY));
+            assertEquals(2, countOpcodes(compiled, CompiledFormula.LOAD_TEMPORARY));
+
+            double x = 1.5;
+            double shared = x * x + 1;
+            assertEquals(shared * shared - shared, engineCalculator.calculateFormulaThree(formulaTree, new double[]{x}));
+
+            double[] out = new double[1];
+            engineCalculator.calculateBatch(formulaTree, "x", new double[]{x}, out, ZeroDivisionMode.THROW);
+            assertEquals(shared * shared - shared, out[0]);
+        }
+
+        @Test
+        @DisplayName("Difference of equation sides shares their common terms")
+        void difference() throws LexicalException, IncorrectFormulaException {
+            FormulaTree left = calculator.createOrReturnFormulaTree("x*x-2*x");
+            FormulaTree right = calculator.createOrReturnFormulaTree("x*x+1");
+            FormulaTree difference = FormulaTree.difference(left, right);
+            assertEquals(1, difference.compile().temporaryCount);
+            assertEquals(-2 * 3. - 1, calculator.calculateFormulaThree(difference, new double[]{3}));
+        }
+    }
+
+}
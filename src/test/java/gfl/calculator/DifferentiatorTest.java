@@ -0,0 +1,39 @@
+package gfl.calculator;
+
+import gfl.exceptions.IncorrectFormulaException;
+import gfl.exceptions.LexicalException;
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DifferentiatorTest {
+
+    Calculator calculator = new Calculator();
+
+    @ParameterizedTest
+    @DisplayName("Derivative matches expected value at x=3")
+    @CsvSource({
+            "2*x+5, 2",
+            "x*x-4*x, 2",
+            "-(x*x*x), -27",
+            "(x+1)/(x-1), -0.5",
+            "x/4, 0.25",
+            "7, 0",
+            "y*x, 5",
+    })
+    void derivativeAt3(String formula, double expected) throws IncorrectFormulaException, LexicalException {
+        FormulaTree derivative = calculator.createOrReturnDerivative(formula, "x");
+        Bindings bindings = derivative.newBindings().set("x", 3).set("y", 5);
+        assertEquals(expected, calculator.calculateFormulaThree(derivative, bindings), 1e-12);
+    }
+
+    @Test
+    @DisplayName("Derivative of linear formula is folded to constant and cached")
+    void simplified() throws IncorrectFormulaException, LexicalException {
+        FormulaTree derivative = calculator.createOrReturnDerivative("2*x+5", "x");
+        assertEquals(1, derivative.getNodeCount());
+        assertSame(derivative, calculator.createOrReturnDerivative("2*x+5", "x"));
+    }
+}
@@ -0,0 +1,78 @@
+package gfl.calculator;
+
+import gfl.exceptions.IncorrectFormulaException;
+import gfl.exceptions.LexicalException;
+import org.junit.jupiter.api.*;
+
+import java.util.ArrayList;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FormulaCacheTest {
+
+    static FormulaTree load(String formula) throws IncorrectFormulaException, LexicalException {
+        return FormulaTree.createFormulaTree(LexicalAnalyzer.tokenize(formula));
+    }
+
+    @Test
+    @DisplayName("Cache never holds more formulas than maximum size")
+    void evictsOverMaximumSize() throws IncorrectFormulaException, LexicalException {
+        FormulaCache cache = new FormulaCache(20);
+        for (int i = 0; i < 100; i++) {
+            cache.get("x+" + i, FormulaCacheTest::load);
+        }
+        assertTrue(cache.size() <= 20);
+        assertEquals(100, cache.getMissCount());
+        assertEquals(100 - cache.size(), cache.getEvictionCount());
+    }
+
+    @Test
+    @DisplayName("Recently used formula survives eviction")
+    void keepsRecentlyUsed() throws IncorrectFormulaException, LexicalException {
+        FormulaCache cache = new FormulaCache(1);
+        FormulaTree first = cache.get("x+1", FormulaCacheTest::load);
+        assertSame(first, cache.get("x+1", FormulaCacheTest::load));
+        cache.get("x+2", FormulaCacheTest::load);
+        assertNull(cache.getIfPresent("x+1"));
+        assertEquals(1, cache.getHitCount());
+    }
+
+    @Test
+    @DisplayName("Concurrent misses on the same formula load it once")
+    void loadsOnce() throws Exception {
+        FormulaCache cache = new FormulaCache(100);
+        AtomicInteger loads = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            ArrayList<Future<FormulaTree>> results = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                results.add(executor.submit(() -> {
+                    start.await();
+                    return cache.get("x*x-4", formula -> {
+                        loads.incrementAndGet();
+                        return load(formula);
+                    });
+                }));
+            }
+            start.countDown();
+            FormulaTree formulaTree = results.get(0).get();
+            for (Future<FormulaTree> result : results) {
+                assertSame(formulaTree, result.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(1, loads.get());
+    }
+
+    @Test
+    @DisplayName("Failed load is rethrown and not cached")
+    void failedLoad() {
+        FormulaCache cache = new FormulaCache(10);
+        assertThrowsExactly(IncorrectFormulaException.class, () -> cache.get("2+2?", FormulaCacheTest::load));
+        assertEquals(0, cache.size());
+    }
+}
@@ -0,0 +1,46 @@
+package gfl.calculator;
+
+import gfl.exceptions.IncorrectFormulaException;
+import gfl.exceptions.LexicalException;
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FormulaOptimizerTest {
+
+    static FormulaTree parse(String formula) throws IncorrectFormulaException, LexicalException {
+        return FormulaTree.createFormulaTree(LexicalAnalyzer.tokenize(formula));
+    }
+
+    @ParameterizedTest
+    @DisplayName("Optimized tree has expected size and same result")
+    @CsvSource({
+            "(4/2)*x, 3",
+            "x*1, 1",
+            "1*x-0, 1",
+            "-(-x), 1",
+            "x/1+(2*3), 3",
+            "x+0, 3",
+            "x-(-2), 3",
+    })
+    void optimize(String formula, int expectedNodeCount) throws IncorrectFormulaException, LexicalException {
+        FormulaTree formulaTree = parse(formula);
+        FormulaTree optimized = FormulaOptimizer.optimize(formulaTree);
+
+        assertEquals(expectedNodeCount, optimized.getNodeCount());
+        assertEquals(formulaTree.getNodeCount() - expectedNodeCount, optimized.getRemovedNodeCount());
+        for (double x : new double[]{-2.5, -0., 0., 7.}) {
+            double[] values = {x};
+            assertEquals(formulaTree.compile().evaluate(values, new double[16]), optimized.compile().evaluate(values, new double[16]));
+        }
+    }
+
+    @Test
+    @DisplayName("Constant zero division is kept")
+    void keepsZeroDivision() throws IncorrectFormulaException, LexicalException {
+        FormulaTree optimized = FormulaOptimizer.optimize(parse("x+2/(3-3)"));
+        assertThrowsExactly(ArithmeticException.class, () -> optimized.compile().evaluate(new double[]{1}, new double[16]));
+    }
+}
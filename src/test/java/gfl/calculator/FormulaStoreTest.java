@@ -0,0 +1,101 @@
+package gfl.calculator;
+
+import gfl.exceptions.IncorrectFormulaException;
+import gfl.exceptions.LexicalException;
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FormulaStoreTest {
+
+    static final String[] FORMULAS = {"2+2", "x*x-4*x+1/x", "-(x+y)*(x+y)/2", "x/1*1+0", "((x))-(-3)"};
+
+    @TempDir
+    Path directory;
+
+    HashMap<String, Double> variables() {
+        HashMap<String, Double> variables = new HashMap<>();
+        variables.put("x", 3.);
+        variables.put("y", 0.5);
+        return variables;
+    }
+
+    Path save() throws IOException, IncorrectFormulaException, LexicalException {
+        Calculator calculator = new Calculator();
+        for (String formula : FORMULAS) {
+            calculator.createOrReturnFormulaTree(formula);
+        }
+        Path path = directory.resolve("formulas.bin");
+        calculator.saveFormulas(path);
+        return path;
+    }
+
+    @Test
+    @DisplayName("Restarted calculator loads formulas from file instead of parsing them")
+    void warmStart() throws IOException, IncorrectFormulaException, LexicalException {
+        Path path = save();
+        Calculator restarted = new Calculator(Calculator.Engine.BYTECODE);
+        restarted.openFormulaStore(path);
+        assertEquals(FORMULAS.length, restarted.getFormulaStore().size());
+
+        Calculator parsing = new Calculator();
+        for (String formula : FORMULAS) {
+            assertEquals(parsing.calculate(formula, variables()), restarted.calculate(formula, variables()));
+        }
+        assertEquals(FORMULAS.length, restarted.getFormulaStore().getLoadCount());
+        assertEquals(parsing.createOrReturnFormulaTree("x/1*1+0").getNodeCount(), restarted.createOrReturnFormulaTree("x/1*1+0").getNodeCount());
+        assertNull(restarted.getFormulaStore().load("x+1"));
+        assertEquals(4, restarted.calculate("x+1", variables()));
+    }
+
+    @Test
+    @DisplayName("Saving keeps formulas of opened file that were not loaded")
+    void merge() throws IOException, IncorrectFormulaException, LexicalException {
+        Path path = save();
+        Calculator restarted = new Calculator();
+        restarted.openFormulaStore(path);
+        restarted.createOrReturnFormulaTree("x+1");
+        restarted.saveFormulas(path);
+
+        FormulaStore store = FormulaStore.open(path);
+        assertEquals(FORMULAS.length + 1, store.size());
+        for (String formula : FORMULAS) {
+            assertNotNull(store.load(formula), formula);
+        }
+        assertNotNull(store.load("x+1"));
+    }
+
+    @Test
+    @DisplayName("Damaged entry is parsed again, damaged header and other version are rejected")
+    void damaged() throws IOException, IncorrectFormulaException, LexicalException {
+        Path path = save();
+        byte[] bytes = Files.readAllBytes(path);
+        // Last byte of first entry, inside its node program
+        int firstEntryEnd = FormulaStore.HEADER_SIZE + 4 + ByteBuffer.wrap(bytes).getInt(FormulaStore.HEADER_SIZE);
+        bytes[firstEntryEnd - 1] ^= 1;
+        Files.write(path, bytes);
+
+        Calculator restarted = new Calculator();
+        restarted.openFormulaStore(path);
+        for (String formula : FORMULAS) {
+            assertEquals(new Calculator().calculate(formula, variables()), restarted.calculate(formula, variables()));
+        }
+        assertEquals(1, restarted.getFormulaStore().getCorruptEntryCount());
+        assertEquals(FORMULAS.length - 1, restarted.getFormulaStore().getLoadCount());
+
+        bytes[5] = 99;
+        Files.write(path, bytes);
+        assertThrows(IOException.class, () -> FormulaStore.open(path));
+        bytes[5] = 0;
+        bytes[bytes.length - 1] ^= 1;
+        Files.write(path, bytes);
+        assertThrows(IOException.class, () -> FormulaStore.open(path));
+    }
+}
@@ -0,0 +1,40 @@
+package gfl.calculator;
+
+import gfl.exceptions.IncorrectFormulaException;
+import gfl.exceptions.LexicalException;
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.util.ArrayList;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LexicalAnalyzerTest {
+
+    @ParameterizedTest
+    @DisplayName("Single-pass lexer produces the same tokens as the regex lexer")
+    @ValueSource(strings = {"2+2", "-3+4.", "-x+(x-(-2*x+3))", "5/9/4", "x1*2*x3", "ab+1.5*3", "1 + 2 * x", "-3-(-3)"})
+    void sameTokens(String formula) throws IncorrectFormulaException, LexicalException {
+        ArrayList<Token> expected = LexicalAnalyzer.tokenizeWithRegex(formula);
+        ArrayList<Token> actual = LexicalAnalyzer.tokenizeSinglePass(formula);
+
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).getTokenName(), actual.get(i).getTokenName());
+            assertEquals(expected.get(i).getContent(), actual.get(i).getContent());
+            assertEquals(expected.get(i).getStartPosition(), actual.get(i).getStartPosition());
+        }
+    }
+
+    @ParameterizedTest
+    @DisplayName("Single-pass lexer throws the same errors as the regex lexer")
+    @ValueSource(strings = {"", "   ", "2+2?", "x=.5", "12ab+1.5.3", "2+2((", "2+", "2 2"})
+    void sameErrors(String formula) {
+        Exception expected = assertThrows(Exception.class, () -> LexicalAnalyzer.tokenizeWithRegex(formula));
+        Exception actual = assertThrows(Exception.class, () -> LexicalAnalyzer.tokenizeSinglePass(formula));
+
+        assertEquals(expected.getClass(), actual.getClass());
+        assertEquals(expected.getMessage(), actual.getMessage());
+    }
+}
@@ -0,0 +1,73 @@
+package gfl.calculator;
+
+import gfl.exceptions.IncorrectFormulaException;
+import gfl.exceptions.LexicalException;
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PolynomialSolverTest {
+
+    Calculator calculator = new Calculator();
+
+    double[] solve(String left, String right) throws IncorrectFormulaException, LexicalException {
+        return PolynomialSolver.solve(calculator.createOrReturnFormulaTree(left), calculator.createOrReturnFormulaTree(right), "x");
+    }
+
+    @Test
+    @DisplayName("2*x+5=17 and x*x-4=0")
+    void solve() throws IncorrectFormulaException, LexicalException {
+        assertArrayEquals(new double[]{6}, solve("2*x+5", "17"));
+        assertArrayEquals(new double[]{-2, 2}, solve("x*x-4", "0"));
+        assertArrayEquals(new double[]{3}, solve("(x-3)*(x-3)", "0"));
+        assertArrayEquals(new double[0], solve("x*x+1", "0"));
+        assertArrayEquals(new double[]{0.5}, solve("x/2*4", "1"), 1e-15);
+    }
+
+    @Test
+    @DisplayName("Small root of x*x-1e8*x+1=0 keeps its precision")
+    void stable() throws IncorrectFormulaException, LexicalException {
+        double[] roots = solve("x*x-100000000*x+1", "0");
+        assertEquals(1e-8, roots[0], 1e-20);
+        assertEquals(1e8, roots[1], 1e-4);
+    }
+
+    @ParameterizedTest
+    @DisplayName("Not polynomial of degree 2 or less")
+    @ValueSource(strings = {"x*x*x", "1/x", "x+y", "x/0", "x-x"})
+    void notPolynomial(String left) throws IncorrectFormulaException, LexicalException {
+        assertNull(solve(left, "0"));
+    }
+
+    @Test
+    @DisplayName("Overflowing discriminant is reported, RootFinder scans instead")
+    void overflow() throws IncorrectFormulaException, LexicalException {
+        assertThrows(ArithmeticException.class, () -> PolynomialSolver.solve(new double[]{1, 1e200, 1e200}));
+        assertThrows(ArithmeticException.class, () -> PolynomialSolver.solve(new double[]{1e300, 1e-300, 0}));
+
+        String big = "1" + "0".repeat(200);
+        RootFinder rootFinder = new RootFinder(calculator).setSteps(1000);
+        double[] roots = rootFinder.findRoots(calculator.createOrReturnFormulaTree(big + "*x*x+" + big + "*x"),
+                calculator.createOrReturnFormulaTree("0"), "x", -10, 10);
+        assertArrayEquals(new double[]{-1, 0}, roots, 1e-12);
+    }
+
+    @Test
+    @DisplayName("Roots of x*x-20000000000=0 pass function tolerance scaled by coefficients")
+    void largeCoefficients() throws IncorrectFormulaException, LexicalException {
+        RootFinder rootFinder = new RootFinder(calculator).setSteps(1).setFunctionTolerance(1e-9);
+        double[] roots = rootFinder.findRoots(calculator.createOrReturnFormulaTree("x*x-20000000000"),
+                calculator.createOrReturnFormulaTree("0"), "x", -1e6, 1e6);
+        assertArrayEquals(new double[]{-Math.sqrt(2e10), Math.sqrt(2e10)}, roots, 1e-6);
+    }
+
+    @Test
+    @DisplayName("RootFinder solves quadratic in closed form")
+    void rootFinder() throws IncorrectFormulaException, LexicalException {
+        RootFinder rootFinder = new RootFinder(calculator).setSteps(1);
+        double[] roots = rootFinder.findRoots(calculator.createOrReturnFormulaTree("x*x-2"), calculator.createOrReturnFormulaTree("0"), "x", -10, 10);
+        assertArrayEquals(new double[]{-Math.sqrt(2), Math.sqrt(2)}, roots, 1e-15);
+    }
+}
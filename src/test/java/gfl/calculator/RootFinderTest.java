@@ -0,0 +1,49 @@
+package gfl.calculator;
+
+import gfl.exceptions.IncorrectFormulaException;
+import gfl.exceptions.LexicalException;
+import org.junit.jupiter.api.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RootFinderTest {
+
+    Calculator calculator = new Calculator();
+    RootFinder rootFinder = new RootFinder(calculator);
+
+    double[] findRoots(String left, String right, double from, double to) throws IncorrectFormulaException, LexicalException {
+        return rootFinder.findRoots(calculator.createOrReturnFormulaTree(left), calculator.createOrReturnFormulaTree(right), "x", from, to);
+    }
+
+    @Test
+    @DisplayName("x*x-4=0")
+    void quadratic() throws IncorrectFormulaException, LexicalException {
+        assertArrayEquals(new double[]{-2, 2}, findRoots("x*x-4", "0", -10, 10), 1e-12);
+    }
+
+    @Test
+    @DisplayName("2*x+5=17.3, root between grid points")
+    void linear() throws IncorrectFormulaException, LexicalException {
+        assertArrayEquals(new double[]{6.15}, findRoots("2*x+5", "17.3", -100, 100), 1e-12);
+    }
+
+    @Test
+    @DisplayName("x*x*x=2*x, roots on grid and with many tasks")
+    void cubic() throws IncorrectFormulaException, LexicalException {
+        rootFinder.setSteps(1_000_000);
+        double[] roots = findRoots("x*x*x", "2*x", -3, 3);
+        assertArrayEquals(new double[]{-Math.sqrt(2), 0, Math.sqrt(2)}, roots, 1e-12);
+    }
+
+    @Test
+    @DisplayName("1/x=0, sign change over pole is not a root")
+    void pole() throws IncorrectFormulaException, LexicalException {
+        assertEquals(0, findRoots("1/x", "0", -1, 1).length);
+    }
+
+    @Test
+    @DisplayName("x+y=0, other variables are not allowed")
+    void otherVariables() {
+        assertThrowsExactly(IncorrectFormulaException.class, () -> findRoots("x+y", "0", -1, 1));
+    }
+}
@@ -0,0 +1,98 @@
+package gfl.db;
+
+import org.junit.jupiter.api.*;
+
+import java.lang.reflect.Proxy;
+import java.sql.*;
+import java.util.Properties;
+import java.util.logging.Logger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ConnectionPoolTest {
+
+    static final String URL = "jdbc:gfl-test:pool";
+
+    /**
+     * Driver of connections that do nothing, so pool is tested without database
+     */
+    static final Driver DRIVER = new Driver() {
+        @Override
+        public Connection connect(String url, Properties info) {
+            if (!acceptsURL(url)) {
+                return null;
+            }
+            return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[]{Connection.class},
+                    (proxy, method, args) -> switch (method.getName()) {
+                        case "getAutoCommit", "isValid" -> true;
+                        case "isClosed" -> false;
+                        case "hashCode" -> System.identityHashCode(proxy);
+                        case "equals" -> proxy == args[0];
+                        default -> null;
+                    });
+        }
+
+        @Override
+        public boolean acceptsURL(String url) {
+            return url.startsWith(URL);
+        }
+
+        @Override
+        public DriverPropertyInfo[] getPropertyInfo(String url, Properties info) {
+            return new DriverPropertyInfo[0];
+        }
+
+        @Override
+        public int getMajorVersion() {
+            return 1;
+        }
+
+        @Override
+        public int getMinorVersion() {
+            return 0;
+        }
+
+        @Override
+        public boolean jdbcCompliant() {
+            return false;
+        }
+
+        @Override
+        public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+            throw new SQLFeatureNotSupportedException();
+        }
+    };
+
+    @BeforeAll
+    static void registerDriver() throws SQLException {
+        DriverManager.registerDriver(DRIVER);
+    }
+
+    @AfterAll
+    static void deregisterDriver() throws SQLException {
+        DriverManager.deregisterDriver(DRIVER);
+    }
+
+    @Test
+    @DisplayName("Leak is reported for every borrow of the same connection")
+    void leakReportedAgain() throws SQLException, InterruptedException {
+        Properties properties = new Properties();
+        properties.setProperty("pool.size", "1");
+        properties.setProperty("pool.leakDetectionThresholdMillis", "1");
+        try (ConnectionPool pool = new ConnectionPool(URL, DatabaseConfig.of(properties))) {
+            PooledConnection first = pool.getConnection();
+            Thread.sleep(5);
+            pool.detectLeaks();
+            assertTrue(first.leakReported);
+            first.close();
+
+            PooledConnection second = pool.getConnection();
+            assertSame(first, second);
+            assertFalse(second.leakReported);
+            Thread.sleep(5);
+            pool.detectLeaks();
+            assertTrue(second.leakReported);
+            second.close();
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package gfl.db;
+
+import org.junit.jupiter.api.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RootIndexTest {
+
+    RootIndex rootIndex;
+
+    @BeforeEach
+    public void beforeEach() {
+        rootIndex = new RootIndex();
+        rootIndex.load(new double[]{-1, 0.3, 0.3, 2, 0}, new int[]{4, 1, 3, 1, 0}, 4);
+    }
+
+    @Test
+    @DisplayName("Exact and range search")
+    void find() {
+        assertArrayEquals(new int[]{1, 3}, rootIndex.findExact(0.3));
+        assertArrayEquals(new int[0], rootIndex.findExact(0.30000000000000004));
+        assertArrayEquals(new int[]{1, 3}, rootIndex.findRange(0.3 - 1e-9, 0.3 + 1e-9));
+        assertArrayEquals(new int[]{1, 3, 4}, rootIndex.findRange(-5, 5));
+        assertArrayEquals(new int[0], rootIndex.findRange(3, 5));
+    }
+
+    @Test
+    @DisplayName("Near-equal root of the same equation is not added")
+    void add() {
+        assertFalse(rootIndex.add(1, 0.30000000000000004, 1e-9));
+        assertTrue(rootIndex.add(2, 0.30000000000000004, 1e-9));
+        assertTrue(rootIndex.add(0, 0.3, 1e-9));
+        assertEquals(6, rootIndex.size());
+        assertArrayEquals(new int[]{0, 1, 2, 3}, rootIndex.findRange(0.29, 0.31));
+        assertArrayEquals(new int[]{0, 1, 3}, rootIndex.findExact(0.3));
+    }
+
+    @Test
+    @DisplayName("Only the given root of the given equation is removed")
+    void remove() {
+        assertTrue(rootIndex.remove(1, 0.3));
+        assertFalse(rootIndex.remove(1, 0.3));
+        assertFalse(rootIndex.remove(4, 2));
+        assertEquals(3, rootIndex.size());
+        assertArrayEquals(new int[]{3}, rootIndex.findExact(0.3));
+        assertArrayEquals(new int[]{1}, rootIndex.findExact(2));
+    }
+
+    @Test
+    @DisplayName("Unsorted roots are rejected")
+    void loadUnsorted() {
+        assertThrows(IllegalArgumentException.class, () -> rootIndex.load(new double[]{2, 1}, new int[]{1, 1}, 2));
+    }
+}
@@ -0,0 +1,56 @@
+package gfl.metrics;
+
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LatencyHistogramTest {
+
+    @ParameterizedTest
+    @DisplayName("Value lies in its bucket, bucket is narrower than 1/16 of value")
+    @ValueSource(longs = {0, 1, 15, 16, 17, 31, 32, 1000, 123_456, 1L << 30, (1L << 40) + 12345})
+    void buckets(long value) {
+        int index = LatencyHistogram.indexOf(value);
+        long highest = LatencyHistogram.highestValueOf(index);
+        long lowest = index == 0 ? 0 : LatencyHistogram.highestValueOf(index - 1) + 1;
+        assertTrue(lowest <= value && value <= highest, lowest + " " + value + " " + highest);
+        assertTrue(highest - lowest <= Math.max(1, value / 16));
+    }
+
+    @Test
+    @DisplayName("Huge values fall into last bucket")
+    void overflow() {
+        assertEquals(LatencyHistogram.BUCKET_COUNT - 1, LatencyHistogram.indexOf(Long.MAX_VALUE));
+    }
+
+    @Test
+    @DisplayName("Percentiles of 1..1000 microseconds")
+    void percentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i * 1000L);
+        }
+        assertEquals(1000, histogram.getCount());
+        assertEquals(500_500, histogram.getMean(), 1e-6);
+        assertEquals(1_000_000, histogram.getMax());
+        assertEquals(500_000, histogram.getPercentile(50), 500_000 / 16.);
+        assertEquals(990_000, histogram.getPercentile(99), 990_000 / 16.);
+        assertEquals(1_000_000, histogram.getPercentile(100));
+
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getPercentile(50));
+    }
+
+    @Test
+    @DisplayName("Timers are shared by name")
+    void timers() {
+        Timer timer = Metrics.timer("test");
+        assertSame(timer, Metrics.timer("test"));
+        timer.record(2000);
+        assertEquals(1, timer.getCount());
+        assertEquals(2, timer.getMaxMicros(), 1e-9);
+    }
+}